@@ -0,0 +1,74 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downloads files directly on the agent that owns the workspace.
+ *
+ * The controller only sends the download plan: repository, commit, the paths to fetch and a
+ * short-lived access token. The agent fetches the blobs from the Diversion API itself, so
+ * network and decompression load is spread across agents instead of being proxied through the
+ * controller. The agent uses its own JVM proxy settings and does not use the controller's blob cache.
+ */
+class DiversionAgentDownload extends MasterToSlaveFileCallable<DiversionParallelDownloader.Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String accessToken;
+    private final String repositoryId;
+    private final String ref;
+    private final List<String> paths;
+    private final String stripPrefix;
+    private final int threads;
+    private final int retries;
+
+    /**
+     * @param paths Repository paths to download
+     * @param stripPrefix Prefix removed from each path to get its location in the workspace
+     */
+    DiversionAgentDownload(String accessToken, String repositoryId, String ref,
+                           List<String> paths, String stripPrefix, int threads, int retries) {
+        this.accessToken = accessToken;
+        this.repositoryId = repositoryId;
+        this.ref = ref;
+        this.paths = new ArrayList<>(paths);
+        this.stripPrefix = stripPrefix;
+        this.threads = threads;
+        this.retries = retries;
+    }
+
+    @Override
+    public DiversionParallelDownloader.Result invoke(File workspace, VirtualChannel channel)
+            throws IOException, InterruptedException {
+        HttpClient httpClient = HttpClient.newBuilder()
+            .proxy(ProxySelector.getDefault())
+            .build();
+        Path root = workspace.toPath().toAbsolutePath().normalize();
+
+        return DiversionParallelDownloader.downloadAll(paths, threads, retries, filePath -> {
+            Path target = root.resolve(filePath.substring(stripPrefix.length())).normalize();
+            if (!target.startsWith(root)) {
+                throw new IOException("Refusing to write outside the workspace: " + filePath);
+            }
+            Path parent = target.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (InputStream content = DiversionBlobDownload.open(httpClient, accessToken, repositoryId, ref, filePath)) {
+                Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        });
+    }
+}
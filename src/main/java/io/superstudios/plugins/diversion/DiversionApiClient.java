@@ -6,18 +6,16 @@ import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
 import hudson.model.Item;
 import hudson.model.Run;
-import hudson.ProxyConfiguration;
 import hudson.util.Secret;
-import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
@@ -25,8 +23,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Client for interacting with Diversion API.
@@ -35,7 +31,7 @@ import java.util.zip.GZIPInputStream;
  */
 public class DiversionApiClient {
     
-    private static final String API_BASE_URL = "https://api.diversion.dev/v0";
+    private static final String API_BASE_URL = DiversionBlobDownload.API_BASE_URL;
     private static final String AUTH_BASE_URL = "https://auth.diversion.dev/oauth2/token";
     private static final String CLIENT_ID = "j084768v4hd6j1pf8df4h4c47";
     private static final ObjectMapper objectMapper = new ObjectMapper();
@@ -52,7 +48,7 @@ public class DiversionApiClient {
     public DiversionApiClient(String credentialsId, Run<?, ?> run) {
         this.credentialsId = credentialsId;
         this.run = run;
-        this.httpClient = createHttpClient();
+        this.httpClient = DiversionHttpClients.get();
     }
     
     /**
@@ -62,22 +58,7 @@ public class DiversionApiClient {
     public DiversionApiClient(String credentialsId) {
         this.credentialsId = credentialsId;
         this.run = null;
-        this.httpClient = createHttpClient();
-    }
-    
-    /**
-     * Create HttpClient with proxy support from Jenkins ProxyConfiguration
-     */
-    private HttpClient createHttpClient() {
-        Jenkins jenkins = Jenkins.get();
-        ProxyConfiguration proxyConfig = jenkins.proxy;
-        
-        if (proxyConfig != null) {
-            // Use ProxyConfiguration's built-in method which handles authentication
-            return proxyConfig.newHttpClient();
-        }
-        
-        return HttpClient.newHttpClient();
+        this.httpClient = DiversionHttpClients.get();
     }
     
     /**
@@ -124,22 +105,34 @@ public class DiversionApiClient {
         throw new IOException("Invalid credentials type for Diversion API token");
     }
     
+    /**
+     * Thrown when the API reports that the requested object does not exist, so callers can
+     * tell a missing branch or commit apart from authentication, server or network failures.
+     */
+    static final class NotFoundException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+    
     /**
      * Make authenticated request to Diversion API
      */
     private JsonNode makeRequest(String endpoint) throws IOException, InterruptedException {
-        String accessToken = getAccessToken();
         String url = API_BASE_URL + endpoint;
         
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", "Bearer " + accessToken)
             .header("Content-Type", "application/json")
-            .GET()
-            .build();
+            .GET();
         
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = sendAuthorized(request, HttpResponse.BodyHandlers.ofString());
         
+        if (response.statusCode() == 404) {
+            throw new NotFoundException("Diversion API request failed: " + response.statusCode() + " - " + response.body());
+        }
         if (response.statusCode() >= 400) {
             throw new IOException("Diversion API request failed: " + response.statusCode() + " - " + response.body());
         }
@@ -148,11 +141,46 @@ public class DiversionApiClient {
     }
     
     /**
-     * Exchange refresh token for access token
+     * Send a request with a Bearer access token.
+     * Access tokens are cached per credential, so if the API rejects a cached token
+     * (revoked or expired early) it is dropped and the request is retried once with a fresh one.
      */
-    private String getAccessToken() throws IOException, InterruptedException {
+    private <T> HttpResponse<T> sendAuthorized(HttpRequest.Builder requestBuilder,
+                                               HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
         String refreshToken = getApiToken();
+        requestBuilder.setHeader("Authorization", "Bearer " + getAccessToken(refreshToken));
+        HttpResponse<T> response = httpClient.send(requestBuilder.build(), bodyHandler);
+        
+        if (response.statusCode() == 401) {
+            if (response.body() instanceof InputStream) {
+                ((InputStream) response.body()).close(); // Release the connection before retrying
+            }
+            DiversionTokenCache.get().invalidate(credentialsId, refreshToken);
+            requestBuilder.setHeader("Authorization", "Bearer " + getAccessToken(refreshToken));
+            response = httpClient.send(requestBuilder.build(), bodyHandler);
+        }
         
+        return response;
+    }
+    
+    /**
+     * Get an access token for the configured credential.
+     * Served from the process-wide token cache; the refresh token is only exchanged
+     * when no usable cached token exists.
+     */
+    private String getAccessToken() throws IOException, InterruptedException {
+        return getAccessToken(getApiToken());
+    }
+    
+    private String getAccessToken(String refreshToken) throws IOException, InterruptedException {
+        return DiversionTokenCache.get().getAccessToken(credentialsId, refreshToken,
+            () -> exchangeRefreshToken(refreshToken));
+    }
+    
+    /**
+     * Exchange refresh token for access token
+     */
+    private DiversionTokenCache.AccessToken exchangeRefreshToken(String refreshToken) throws IOException, InterruptedException {
         String requestBody = "grant_type=refresh_token&refresh_token=" + refreshToken + "&client_id=" + CLIENT_ID;
         
         HttpRequest request = HttpRequest.newBuilder()
@@ -172,7 +200,8 @@ public class DiversionApiClient {
         if (accessTokenNode == null || accessTokenNode.asText().isEmpty()) {
             throw new IOException("Token exchange response did not include access_token");
         }
-        return accessTokenNode.asText();
+        long expiresIn = jsonResponse.path("expires_in").asLong(DiversionTokenCache.DEFAULT_EXPIRES_IN_SECONDS);
+        return new DiversionTokenCache.AccessToken(accessTokenNode.asText(), expiresIn);
     }
     
     /**
@@ -197,19 +226,86 @@ public class DiversionApiClient {
     
     /**
      * Get file tree for a repository
-     * Uses the /repos/{repo_id}/trees/{ref_id} endpoint
+     * Served from the controller-wide tree cache whenever the ref resolves to a commit.
      */
     public List<DiversionFile> getFileTree(String repositoryId, String ref) throws IOException, InterruptedException {
-        String accessToken = getAccessToken();
+        return getFileTreeIndex(repositoryId, ref).getFiles();
+    }
+    
+    /**
+     * Get the indexed file tree for a ref.
+     * Branch refs are first resolved to their current commit so the cache only ever
+     * holds immutable trees; refs that cannot be resolved are fetched without caching.
+     */
+    public DiversionFileTree getFileTreeIndex(String repositoryId, String ref) throws IOException, InterruptedException {
+        String commitId = resolveCommitId(repositoryId, ref);
+        if (commitId == null) {
+            return DiversionFileTree.of(fetchFileTree(repositoryId, ref));
+        }
+        return DiversionTreeCache.get().get(repositoryId, commitId,
+            () -> DiversionFileTree.of(fetchFileTree(repositoryId, commitId)));
+    }
+    
+    /**
+     * Resolve a ref (commit ID, branch ID or branch name) to a commit ID.
+     * Branches are always resolved against the API, since checkouts must build the current
+     * head; the result is shared with pollers through {@link DiversionBranchHeadCoordinator}.
+     * Returns null if the ref is not a commit or a known branch; any other failure is thrown.
+     */
+    public String resolveCommitId(String repositoryId, String ref) throws IOException, InterruptedException {
+        if (isCommitId(ref)) {
+            return ref;
+        }
+        String commitId;
+        try {
+            commitId = getBranchDetails(repositoryId, ref).getCommitId();
+        } catch (NotFoundException e) {
+            // Not a branch (e.g. a tag); let the caller use the ref as-is
+            return null;
+        }
+        DiversionBranchHeadCoordinator.get().seed(credentialsKey(), repositoryId, ref, commitId);
+        return commitId != null && !commitId.isEmpty() ? commitId : null;
+    }
+    
+    /**
+     * Get the commit ID at the head of a branch for polling, sharing recent and in-flight
+     * lookups through {@link DiversionBranchHeadCoordinator}. The head may be up to the
+     * coordinator's TTL old; use {@link #resolveCommitId} when the current head is needed.
+     * Returns null if the branch has no commit ID.
+     */
+    public String getBranchHead(String repositoryId, String branch) throws IOException, InterruptedException {
+        String commitId = DiversionBranchHeadCoordinator.get().getHead(credentialsKey(), repositoryId, branch,
+            () -> getBranchDetails(repositoryId, branch).getCommitId());
+        return commitId != null && !commitId.isEmpty() ? commitId : null;
+    }
+    
+    /**
+     * Key for state shared between clients. Same-ID credentials in different folders may belong
+     * to different accounts, so state is shared per secret, like access tokens.
+     */
+    String credentialsKey() throws IOException {
+        return credentialsId + ":" + DiversionTokenCache.fingerprint(getApiToken());
+    }
+    
+    /**
+     * Whether a ref is an immutable commit ID (e.g. "dv.commit.4762").
+     */
+    static boolean isCommitId(String ref) {
+        return ref != null && ref.startsWith("dv.commit.");
+    }
+    
+    /**
+     * Download a file tree from the API
+     * Uses the /repos/{repo_id}/trees/{ref_id} endpoint
+     */
+    private List<DiversionFile> fetchFileTree(String repositoryId, String ref) throws IOException, InterruptedException {
         String treesUrl = API_BASE_URL + "/repos/" + repositoryId + "/trees/" + ref;
         
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
             .uri(URI.create(treesUrl))
-            .header("Authorization", "Bearer " + accessToken)
-            .GET()
-            .build();
+            .GET();
         
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = sendAuthorized(request, HttpResponse.BodyHandlers.ofString());
         
         if (response.statusCode() != 200) {
             throw new IOException("Failed to get file tree: " + response.statusCode() + " - " + response.body());
@@ -231,6 +327,7 @@ public class DiversionApiClient {
                 JsonNode blobNode = entry.get("blob");
                 if (blobNode != null && !blobNode.isNull()) {
                     file.setType("blob"); // It's a file
+                    file.setBlobId(blobIdOf(blobNode));
                 } else {
                     file.setType("tree"); // It's a directory
                 }
@@ -243,99 +340,90 @@ public class DiversionApiClient {
     }
     
     /**
-     * Get file content by path and ref
+     * Read the blob ID from a tree entry's blob object, or null if it has none.
+     */
+    private static String blobIdOf(JsonNode blobNode) {
+        JsonNode idNode = blobNode.get("blobId");
+        return idNode != null && idNode.isTextual() && !idNode.asText().isEmpty() ? idNode.asText() : null;
+    }
+    
+    /**
+     * Get file content by path and ref, decoded as UTF-8 text.
+     * Use {@link #getFileContentAsStream} or {@link #downloadFile} for binary files.
      */
     public String getFileContent(String repositoryId, String ref, String filePath) throws IOException, InterruptedException {
-        // URL encode the file path
-        String encodedFilePath = URLEncoder.encode(filePath, "UTF-8");
-        
-        // Make request to blob endpoint
-        String accessToken = getAccessToken();
-        String blobUrl = API_BASE_URL + "/repos/" + repositoryId + "/blobs/" + ref + "/" + encodedFilePath;
-        
-        HttpRequest blobRequest = HttpRequest.newBuilder()
-            .uri(URI.create(blobUrl))
-            .header("Authorization", "Bearer " + accessToken)
-            .GET()
-            .build();
-        
-        HttpResponse<byte[]> blobResponse = httpClient.send(blobRequest, HttpResponse.BodyHandlers.ofByteArray());
-        
-        // Handle redirects (204 or standard 3xx responses with Location header)
-        int status = blobResponse.statusCode();
-        boolean hasRedirectLocation = status == 204 || status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
-        if (hasRedirectLocation) {
-            String locationHeader = blobResponse.headers().firstValue("Location").orElse(null);
-            if (locationHeader != null) {
-                URI contentUri = URI.create(locationHeader);
-                HttpRequest.Builder contentRequestBuilder = HttpRequest.newBuilder()
-                    .uri(contentUri)
-                    .GET();
-                
-                // Some Diversion redirects still require Bearer auth.
-                // Only forward the token for trusted Diversion-owned hosts.
-                String host = contentUri.getHost();
-                if (host != null && (host.equals("api.diversion.dev") || host.endsWith(".diversion.dev"))) {
-                    contentRequestBuilder.header("Authorization", "Bearer " + accessToken);
-                }
-                
-                HttpRequest contentRequest = contentRequestBuilder.build();
-                
-                HttpResponse<byte[]> contentResponse = httpClient.send(contentRequest, HttpResponse.BodyHandlers.ofByteArray());
-                
-                if (contentResponse.statusCode() >= 400) {
-                    String responseBody = decodeContentBytes(contentResponse.body(), contentResponse.headers().firstValue("Content-Encoding").orElse(null));
-                    throw new IOException("Failed to get file content from Location URL: " + contentResponse.statusCode() + " - " + responseBody);
-                }
-                
-                return decodeContentBytes(contentResponse.body(), contentResponse.headers().firstValue("Content-Encoding").orElse(null));
-            } else {
-                throw new IOException("Blob endpoint returned redirect but no Location header found");
-            }
-        } else if (blobResponse.statusCode() >= 400) {
-            String responseBody = decodeContentBytes(blobResponse.body(), blobResponse.headers().firstValue("Content-Encoding").orElse(null));
-            throw new IOException("Failed to get file content: " + blobResponse.statusCode() + " - " + responseBody);
+        try (InputStream content = getFileContentAsStream(repositoryId, ref, filePath)) {
+            return new String(content.readAllBytes(), StandardCharsets.UTF_8);
         }
-        
-        return decodeContentBytes(blobResponse.body(), blobResponse.headers().firstValue("Content-Encoding").orElse(null));
     }
-
+    
     /**
-     * Decode byte payload to UTF-8 text, transparently handling gzip when present.
+     * Download a file straight into a FilePath (local or on an agent) without
+     * holding the content in memory. The bytes are written unchanged, so binary files are safe.
      */
-    private String decodeContentBytes(byte[] contentBytes, String contentEncoding) throws IOException {
-        boolean gzipEncoded = isGzipEncoded(contentEncoding) || looksLikeGzip(contentBytes);
-        if (gzipEncoded) {
-            return decompressGzip(contentBytes);
-        }
-        return new String(contentBytes, StandardCharsets.UTF_8);
+    public void downloadFile(String repositoryId, String ref, String filePath, FilePath target) throws IOException, InterruptedException {
+        downloadFile(repositoryId, ref, filePath, null, target);
     }
-
-    private boolean isGzipEncoded(String contentEncoding) {
-        if (contentEncoding == null) {
-            return false;
+    
+    /**
+     * Download a file into a FilePath, reading through the blob cache using the file's
+     * blob ID when it is known.
+     */
+    public void downloadFile(String repositoryId, String ref, String filePath, @CheckForNull String blobId, FilePath target) throws IOException, InterruptedException {
+        try (InputStream content = getFileContentAsStream(repositoryId, ref, filePath, blobId)) {
+            target.copyFrom(content);
         }
-        return contentEncoding.toLowerCase(Locale.ROOT).contains("gzip");
     }
-
-    private boolean looksLikeGzip(byte[] contentBytes) {
-        return contentBytes != null
-            && contentBytes.length >= 2
-            && (contentBytes[0] & 0xFF) == 0x1F
-            && (contentBytes[1] & 0xFF) == 0x8B;
+    
+    /**
+     * Open a stream over the raw bytes of a file at the given ref.
+     * The response body is streamed and gzip is decoded on the fly, so memory use does
+     * not depend on the file size. The caller must close the returned stream.
+     */
+    public InputStream getFileContentAsStream(String repositoryId, String ref, String filePath) throws IOException, InterruptedException {
+        return getFileContentAsStream(repositoryId, ref, filePath, null);
     }
-
-    private String decompressGzip(byte[] compressed) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(compressed);
-             GZIPInputStream gzis = new GZIPInputStream(bais);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = gzis.read(buffer)) != -1) {
-                baos.write(buffer, 0, len);
-            }
-            return baos.toString(StandardCharsets.UTF_8);
+    
+    /**
+     * Open a stream over the raw bytes of a file, reading through the on-disk blob cache.
+     * Content is cached by blob ID when known, otherwise by (repository, commit, path) when the
+     * ref is a commit ID. Reads against a moving branch ref always go to the API.
+     */
+    public InputStream getFileContentAsStream(String repositoryId, String ref, String filePath, @CheckForNull String blobId) throws IOException, InterruptedException {
+        String cacheKey;
+        if (blobId != null && !blobId.isEmpty()) {
+            cacheKey = DiversionBlobCache.blobKey(blobId);
+        } else if (isCommitId(ref)) {
+            cacheKey = DiversionBlobCache.pathKey(repositoryId, ref, filePath);
+        } else {
+            return openBlobStream(repositoryId, ref, filePath);
         }
+        return DiversionBlobCache.get().open(cacheKey, () -> openBlobStream(repositoryId, ref, filePath));
+    }
+    
+    /**
+     * Stream a file's content from the blob endpoint, following storage redirects.
+     * A rejected cached access token is dropped and the request retried once.
+     */
+    private InputStream openBlobStream(String repositoryId, String ref, String filePath) throws IOException, InterruptedException {
+        String refreshToken = getApiToken();
+        try {
+            return DiversionBlobDownload.open(httpClient, getAccessToken(refreshToken), repositoryId, ref, filePath);
+        } catch (DiversionBlobDownload.UnauthorizedException e) {
+            DiversionTokenCache.get().invalidate(credentialsId, refreshToken);
+            return DiversionBlobDownload.open(httpClient, getAccessToken(refreshToken), repositoryId, ref, filePath);
+        }
+    }
+    
+    /**
+     * Get an access token to hand to an agent for direct downloads.
+     * The agent cannot refresh it, so a cached token is only reused while it has at least
+     * {@link DiversionTokenCache#TRANSFER_MIN_VALIDITY_MILLIS} left; otherwise a new one is exchanged.
+     */
+    String getAccessTokenForTransfer() throws IOException, InterruptedException {
+        String refreshToken = getApiToken();
+        return DiversionTokenCache.get().getAccessToken(credentialsId, refreshToken,
+            DiversionTokenCache.TRANSFER_MIN_VALIDITY_MILLIS, () -> exchangeRefreshToken(refreshToken));
     }
     
     /**
@@ -378,6 +466,7 @@ public class DiversionApiClient {
             }
         }
         
+        DiversionBranchIndex.get().update(credentialsKey(), repositoryId, branches);
         return branches;
     }
     
@@ -387,32 +476,44 @@ public class DiversionApiClient {
     public DiversionBranch getBranchDetails(String repositoryId, String branchIdOrName) throws IOException, InterruptedException {
         // If it looks like a branch ID, use it directly
         if (branchIdOrName.startsWith("dv.branch.")) {
-            JsonNode response = makeRequest("/repos/" + repositoryId + "/branches/" + branchIdOrName);
-            return new DiversionBranch(response);
+            return fetchBranch(repositoryId, branchIdOrName);
         }
         
-        // Otherwise, search for the branch by name
-        List<DiversionBranch> branches = listBranches(repositoryId);
-        for (DiversionBranch branch : branches) {
-            if (branch.getName().equals(branchIdOrName)) {
-                return branch;
+        // Otherwise, resolve the name through the branch index and fetch the branch by ID
+        String branchId = resolveBranchId(repositoryId, branchIdOrName);
+        try {
+            return fetchBranch(repositoryId, branchId);
+        } catch (IOException e) {
+            // The name may now belong to a different branch; resolve it once more from a fresh listing
+            DiversionBranchIndex.get().invalidate(repositoryId);
+            String currentId = resolveBranchId(repositoryId, branchIdOrName);
+            if (currentId.equals(branchId)) {
+                throw e;
             }
+            return fetchBranch(repositoryId, currentId);
         }
-        
-        throw new IOException("Branch not found: " + branchIdOrName);
+    }
+    
+    private DiversionBranch fetchBranch(String repositoryId, String branchId) throws IOException, InterruptedException {
+        JsonNode response = makeRequest("/repos/" + repositoryId + "/branches/" + branchId);
+        return new DiversionBranch(response);
     }
     
     /**
      * Resolve branch name to ID
-     * Returns branch ID if already an ID, otherwise looks up by name
+     * Returns branch ID if already an ID, otherwise looks up by name in {@link DiversionBranchIndex}
      */
     public String resolveBranchId(String repositoryId, String branchNameOrId) throws IOException, InterruptedException {
         if (branchNameOrId.startsWith("dv.branch.")) {
             return branchNameOrId;
         }
         
-        DiversionBranch branch = getBranchDetails(repositoryId, branchNameOrId);
-        return branch.getId();
+        String branchId = DiversionBranchIndex.get().resolve(credentialsKey(), repositoryId, branchNameOrId,
+            () -> listBranches(repositoryId));
+        if (branchId == null) {
+            throw new NotFoundException("Branch not found: " + branchNameOrId);
+        }
+        return branchId;
     }
     
     /**
@@ -459,9 +560,19 @@ public class DiversionApiClient {
     }
     
     /**
-     * Get detailed commit information including changed files
+     * Get detailed commit information including changed files.
+     * Commits are immutable, so results are served from {@link DiversionCommitCache}
+     * and must not be modified by callers.
      */
     public DiversionCommit getCommitDetails(String repositoryId, String commitId) throws IOException, InterruptedException {
+        if (!isCommitId(commitId)) {
+            return fetchCommitDetails(repositoryId, commitId);
+        }
+        return DiversionCommitCache.get().get(repositoryId, commitId,
+            () -> fetchCommitDetails(repositoryId, commitId));
+    }
+    
+    private DiversionCommit fetchCommitDetails(String repositoryId, String commitId) throws IOException, InterruptedException {
         JsonNode response = makeRequest("/repos/" + repositoryId + "/commits/" + commitId);
         return new DiversionCommit(response);
     }
@@ -472,14 +583,12 @@ public class DiversionApiClient {
     public List<DiversionTag> listTags(String repositoryId) throws IOException, InterruptedException {
         String url = API_BASE_URL + "/repos/" + repositoryId + "/tags";
         
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", "Bearer " + getAccessToken())
             .header("Content-Type", "application/json")
-            .GET()
-            .build();
+            .GET();
         
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = sendAuthorized(request, HttpResponse.BodyHandlers.ofString());
         
         if (response.statusCode() >= 400) {
             throw new IOException("Failed to list tags: " + response.statusCode() + " - " + response.body());
@@ -504,14 +613,12 @@ public class DiversionApiClient {
     public DiversionTag getTag(String repositoryId, String tagId) throws IOException, InterruptedException {
         String url = API_BASE_URL + "/repos/" + repositoryId + "/tags/" + tagId;
         
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", "Bearer " + getAccessToken())
             .header("Content-Type", "application/json")
-            .GET()
-            .build();
+            .GET();
         
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = sendAuthorized(request, HttpResponse.BodyHandlers.ofString());
         
         if (response.statusCode() >= 400) {
             throw new IOException("Failed to get tag: " + response.statusCode() + " - " + response.body());
@@ -540,14 +647,12 @@ public class DiversionApiClient {
         
         String requestBodyJson = mapper.writeValueAsString(requestBody);
         
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", "Bearer " + getAccessToken())
             .header("Content-Type", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(requestBodyJson))
-            .build();
+            .POST(HttpRequest.BodyPublishers.ofString(requestBodyJson));
         
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = sendAuthorized(request, HttpResponse.BodyHandlers.ofString());
         
         if (response.statusCode() >= 400) {
             throw new IOException("Failed to create tag: " + response.statusCode() + " - " + response.body());
@@ -563,14 +668,12 @@ public class DiversionApiClient {
     public void deleteTag(String repositoryId, String tagId) throws IOException, InterruptedException {
         String url = API_BASE_URL + "/repos/" + repositoryId + "/tags/" + tagId;
         
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder request = HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .header("Authorization", "Bearer " + getAccessToken())
             .header("Content-Type", "application/json")
-            .DELETE()
-            .build();
+            .DELETE();
         
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = sendAuthorized(request, HttpResponse.BodyHandlers.ofString());
         
         if (response.statusCode() >= 400) {
             throw new IOException("Failed to delete tag: " + response.statusCode() + " - " + response.body());
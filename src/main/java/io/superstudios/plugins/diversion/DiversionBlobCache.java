@@ -0,0 +1,464 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed on-disk cache of file contents, shared by all jobs on the controller.
+ *
+ * Entries live under {@code JENKINS_HOME/caches/diversion/blobs} and are keyed either by blob ID
+ * or by (repository, commit, path); both identify immutable content. Each entry is written to a
+ * temporary file and atomically moved into place, and carries a trailer with its length and
+ * SHA-256 so truncated or corrupted entries are detected and discarded. Concurrent misses for the
+ * same key share a single download. The total size is capped; least-recently-read entries are
+ * evicted first.
+ */
+public final class DiversionBlobCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionBlobCache.class.getName());
+
+    /** Maximum total size of the cache in megabytes; 0 disables it. */
+    static final long MAX_SIZE_MB = Math.max(0,
+        SystemProperties.getLong(DiversionBlobCache.class.getName() + ".maxSizeMB", 1024L));
+
+    /** Trailer: 8-byte content length, 32-byte SHA-256, 4-byte magic. */
+    private static final byte[] MAGIC = "DVB1".getBytes(StandardCharsets.US_ASCII);
+    private static final int DIGEST_LENGTH = 32;
+    private static final int TRAILER_LENGTH = 8 + DIGEST_LENGTH + 4;
+
+    private static volatile DiversionBlobCache instance;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private boolean indexLoaded;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    DiversionBlobCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static DiversionBlobCache get() {
+        DiversionBlobCache cache = instance;
+        if (cache == null) {
+            synchronized (DiversionBlobCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    Path dir = Jenkins.get().getRootDir().toPath().resolve("caches").resolve("diversion").resolve("blobs");
+                    cache = new DiversionBlobCache(dir, MAX_SIZE_MB * 1024 * 1024);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Opens the uncached content on a miss.
+     */
+    interface Source {
+        InputStream open() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Cache key for content identified by its blob ID.
+     */
+    static String blobKey(String blobId) {
+        return "blob:" + blobId;
+    }
+
+    /**
+     * Cache key for the content of a path at an immutable commit.
+     */
+    static String pathKey(String repositoryId, String commitId, String path) {
+        return "path:" + repositoryId + "\u0000" + commitId + "\u0000" + path;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Open the content for a key, downloading it into the cache first on a miss.
+     * The caller must close the returned stream.
+     */
+    InputStream open(String key, Source source) throws IOException, InterruptedException {
+        if (!isEnabled()) {
+            return source.open();
+        }
+        ensureIndexLoaded();
+
+        String name = DiversionTokenCache.fingerprint(key);
+        Path file = directory.resolve(name);
+
+        InputStream cached = openCached(name, file);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        // Concurrent misses for the same key share one download
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> pending = inFlight.putIfAbsent(name, mine);
+        if (pending == null) {
+            try {
+                // Another thread may have stored it between our check and claiming the key
+                if (!Files.isRegularFile(file)) {
+                    misses.incrementAndGet();
+                    store(name, file, source);
+                }
+                mine.complete(null);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(name, mine);
+            }
+        } else {
+            try {
+                pending.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (!(cause instanceof InterruptedException)) {
+                    throw new IOException("Failed to download " + key + ": " + cause, cause);
+                }
+                // The downloading thread was interrupted, not us; fall through to the source
+            }
+        }
+
+        InputStream stored = openCached(name, file);
+        if (stored == null) {
+            // Evicted or removed concurrently; serve it straight from the source
+            return source.open();
+        }
+        return stored;
+    }
+
+    /**
+     * Download the source into a temp file and atomically move it into place.
+     */
+    private void store(String name, Path file, Source source) throws IOException, InterruptedException {
+        Path temp = Files.createTempFile(directory, name, ".tmp");
+        try {
+            long size = download(source, temp);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            record(name, size);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Copy the source into a temp file and append the integrity trailer.
+     */
+    private long download(Source source, Path temp) throws IOException, InterruptedException {
+        MessageDigest digest = sha256();
+        long length = 0;
+        try (InputStream in = source.open();
+             OutputStream out = Files.newOutputStream(temp, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                length += read;
+            }
+            out.write(ByteBuffer.allocate(8).putLong(length).array());
+            out.write(digest.digest());
+            out.write(MAGIC);
+        }
+        return length + TRAILER_LENGTH;
+    }
+
+    /**
+     * Open a cached entry, or return null if it is missing or its trailer is invalid.
+     */
+    private InputStream openCached(String name, Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        long fileSize;
+        byte[] trailer = new byte[TRAILER_LENGTH];
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            if (fileSize < TRAILER_LENGTH) {
+                discard(name, file, "truncated");
+                return null;
+            }
+            channel.position(fileSize - TRAILER_LENGTH);
+            ByteBuffer buffer = ByteBuffer.wrap(trailer);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // keep reading until the trailer is complete
+            }
+        } catch (IOException e) {
+            // Removed between the existence check and the open
+            return null;
+        }
+
+        ByteBuffer parsed = ByteBuffer.wrap(trailer);
+        long length = parsed.getLong();
+        byte[] expected = new byte[DIGEST_LENGTH];
+        parsed.get(expected);
+        byte[] magic = new byte[MAGIC.length];
+        parsed.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || length != fileSize - TRAILER_LENGTH) {
+            discard(name, file, "invalid trailer");
+            return null;
+        }
+
+        touch(name, file, fileSize);
+        return new VerifyingInputStream(Files.newInputStream(file), length, expected, name, file);
+    }
+
+    private void touch(String name, Path file, long size) {
+        long now = System.currentTimeMillis();
+        Entry entry = index.get(name);
+        if (entry == null) {
+            record(name, size);
+        } else {
+            entry.lastAccess = now;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+        } catch (IOException e) {
+            // Only affects eviction order after a restart
+        }
+    }
+
+    private void record(String name, long size) {
+        Entry previous = index.put(name, new Entry(name, size, System.currentTimeMillis()));
+        totalBytes.addAndGet(size - (previous != null ? previous.size : 0));
+    }
+
+    private void discard(String name, Path file, String reason) {
+        LOGGER.log(Level.WARNING, "Discarding corrupt Diversion blob cache entry {0}: {1}", new Object[] {file, reason});
+        remove(name, file);
+    }
+
+    private void remove(String name, Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not delete " + file, e);
+            return;
+        }
+        Entry entry = index.remove(name);
+        if (entry != null) {
+            totalBytes.addAndGet(-entry.size);
+        }
+    }
+
+    private synchronized void ensureIndexLoaded() throws IOException {
+        if (indexLoaded) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // Left over from an interrupted download
+                    continue;
+                }
+                long size = Files.size(file);
+                index.put(name, new Entry(name, size, Files.getLastModifiedTime(file).toMillis()));
+                totalBytes.addAndGet(size);
+            }
+        }
+        indexLoaded = true;
+        evictIfNeeded();
+    }
+
+    /**
+     * Evict least-recently-read entries until the cache is back under 90% of its cap.
+     */
+    private synchronized void evictIfNeeded() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(index.values());
+        entries.sort(Comparator.comparingLong(e -> e.lastAccess));
+        long target = maxBytes - maxBytes / 10;
+        for (Entry entry : entries) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            remove(entry.name, directory.resolve(entry.name));
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Total bytes currently on disk, including trailers.
+     */
+    public long getSizeBytes() {
+        return totalBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DiversionBlobCache{" +
+                "entries=" + index.size() +
+                ", bytes=" + getSizeBytes() + "/" + maxBytes +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final long size;
+        private volatile long lastAccess;
+
+        Entry(String name, long size, long lastAccess) {
+            this.name = name;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Streams the content of an entry (without its trailer) and checks the SHA-256 once the
+     * end is reached. A mismatch discards the entry and fails the read.
+     */
+    private final class VerifyingInputStream extends FilterInputStream {
+        private final MessageDigest digest = sha256();
+        private final byte[] expected;
+        private final String name;
+        private final Path file;
+        private long remaining;
+        private boolean verified;
+
+        VerifyingInputStream(InputStream in, long length, byte[] expected, String name, Path file) {
+            super(in);
+            this.remaining = length;
+            this.expected = expected;
+            this.name = name;
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                verify();
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                discard(name, file, "shorter than recorded length");
+                throw new IOException("Cached Diversion blob is truncated: " + file);
+            }
+            digest.update(b, off, read);
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipping would bypass the digest; read through instead
+            byte[] buffer = new byte[8192];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void verify() throws IOException {
+            if (verified) {
+                return;
+            }
+            verified = true;
+            if (!MessageDigest.isEqual(digest.digest(), expected)) {
+                discard(name, file, "checksum mismatch");
+                throw new IOException("Cached Diversion blob failed its checksum: " + file);
+            }
+        }
+    }
+}
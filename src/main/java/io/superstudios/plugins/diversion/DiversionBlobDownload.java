@@ -0,0 +1,146 @@
+package io.superstudios.plugins.diversion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams file content from the Diversion blob endpoint with an explicit access token.
+ *
+ * This class depends only on the JDK so it can run on agents, where Jenkins credentials,
+ * the proxy configuration and the controller caches are not available.
+ */
+final class DiversionBlobDownload {
+
+    static final String API_BASE_URL = "https://api.diversion.dev/v0";
+    private static final int MAX_ERROR_BODY_BYTES = 8192;
+
+    private DiversionBlobDownload() {}
+
+    /**
+     * Thrown when the blob endpoint rejects the access token, so callers holding
+     * credentials can refresh the token and retry.
+     */
+    static final class UnauthorizedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnauthorizedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Open a stream over the raw bytes of a file, following storage redirects.
+     * The response body is streamed and gzip is decoded on the fly. The caller must close it.
+     */
+    static InputStream open(HttpClient httpClient, String accessToken, String repositoryId, String ref, String filePath)
+            throws IOException, InterruptedException {
+        // URL encode the file path
+        String encodedFilePath = URLEncoder.encode(filePath, "UTF-8");
+
+        // Make request to blob endpoint
+        String blobUrl = API_BASE_URL + "/repos/" + repositoryId + "/blobs/" + ref + "/" + encodedFilePath;
+
+        HttpRequest blobRequest = HttpRequest.newBuilder()
+            .uri(URI.create(blobUrl))
+            .header("Authorization", "Bearer " + accessToken)
+            .GET()
+            .build();
+
+        HttpResponse<InputStream> blobResponse = httpClient.send(blobRequest, HttpResponse.BodyHandlers.ofInputStream());
+
+        // Handle redirects (204 or standard 3xx responses with Location header)
+        int status = blobResponse.statusCode();
+        boolean hasRedirectLocation = status == 204 || status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+        if (status == 401) {
+            String responseBody = readErrorBody(blobResponse);
+            throw new UnauthorizedException("Failed to get file content: " + status + " - " + responseBody);
+        } else if (hasRedirectLocation) {
+            blobResponse.body().close();
+            String locationHeader = blobResponse.headers().firstValue("Location").orElse(null);
+            if (locationHeader != null) {
+                URI contentUri = URI.create(locationHeader);
+                HttpRequest.Builder contentRequestBuilder = HttpRequest.newBuilder()
+                    .uri(contentUri)
+                    .GET();
+
+                // Some Diversion redirects still require Bearer auth.
+                // Only forward the token for trusted Diversion-owned hosts.
+                String host = contentUri.getHost();
+                if (host != null && (host.equals("api.diversion.dev") || host.endsWith(".diversion.dev"))) {
+                    contentRequestBuilder.header("Authorization", "Bearer " + accessToken);
+                }
+
+                HttpRequest contentRequest = contentRequestBuilder.build();
+
+                HttpResponse<InputStream> contentResponse = httpClient.send(contentRequest, HttpResponse.BodyHandlers.ofInputStream());
+
+                if (contentResponse.statusCode() >= 400) {
+                    String responseBody = readErrorBody(contentResponse);
+                    throw new IOException("Failed to get file content from Location URL: " + contentResponse.statusCode() + " - " + responseBody);
+                }
+
+                return decodeContentStream(contentResponse);
+            } else {
+                throw new IOException("Blob endpoint returned redirect but no Location header found");
+            }
+        } else if (status >= 400) {
+            String responseBody = readErrorBody(blobResponse);
+            throw new IOException("Failed to get file content: " + status + " - " + responseBody);
+        }
+
+        return decodeContentStream(blobResponse);
+    }
+
+    /**
+     * Wrap a response body so gzip is transparently decoded when present,
+     * either declared via Content-Encoding or detected from the gzip magic bytes.
+     */
+    private static InputStream decodeContentStream(HttpResponse<InputStream> response) throws IOException {
+        String contentEncoding = response.headers().firstValue("Content-Encoding").orElse(null);
+        PushbackInputStream body = new PushbackInputStream(response.body(), 2);
+        byte[] magic = new byte[2];
+        int read = body.readNBytes(magic, 0, 2);
+        if (read > 0) {
+            body.unread(magic, 0, read);
+        }
+
+        boolean gzipEncoded = isGzipEncoded(contentEncoding) || looksLikeGzip(magic, read);
+        if (gzipEncoded) {
+            return new GZIPInputStream(body, 8192);
+        }
+        return body;
+    }
+
+    /**
+     * Read (a bounded prefix of) an error response body as text for exception messages.
+     */
+    private static String readErrorBody(HttpResponse<InputStream> response) {
+        try (InputStream body = decodeContentStream(response)) {
+            return new String(body.readNBytes(MAX_ERROR_BODY_BYTES), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "(could not read response body: " + e.getMessage() + ")";
+        }
+    }
+
+    private static boolean isGzipEncoded(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        return contentEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+    }
+
+    private static boolean looksLikeGzip(byte[] contentBytes, int length) {
+        return length >= 2
+            && (contentBytes[0] & 0xFF) == 0x1F
+            && (contentBytes[1] & 0xFF) == 0x8B;
+    }
+}
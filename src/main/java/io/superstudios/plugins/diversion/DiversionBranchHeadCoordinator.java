@@ -0,0 +1,175 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controller-wide coordinator for branch head lookups made while polling. Checkouts resolve
+ * heads directly and only {@linkplain #seed seed} the result here.
+ *
+ * Many jobs often poll the same branch. Each (credential secret, repository, branch) head is
+ * resolved at most once per {@code ttlSeconds}, plus a random jitter of up to
+ * {@code jitterSeconds} so entries created together do not all expire together. Pollers
+ * arriving while a lookup is in flight wait for it instead of starting their own. Failed
+ * lookups are not cached.
+ */
+public final class DiversionBranchHeadCoordinator {
+
+    /** How long a resolved head is reused. */
+    static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(Math.max(0,
+        SystemProperties.getLong(DiversionBranchHeadCoordinator.class.getName() + ".ttlSeconds", 30L)));
+
+    /** Maximum random extension added to each entry's lifetime. */
+    static final long JITTER_MILLIS = TimeUnit.SECONDS.toMillis(Math.max(0,
+        SystemProperties.getLong(DiversionBranchHeadCoordinator.class.getName() + ".jitterSeconds", 10L)));
+
+    private static final DiversionBranchHeadCoordinator INSTANCE = new DiversionBranchHeadCoordinator(TTL_MILLIS, JITTER_MILLIS);
+
+    private final long ttlMillis;
+    private final long jitterMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    DiversionBranchHeadCoordinator(long ttlMillis, long jitterMillis) {
+        this.ttlMillis = ttlMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    public static DiversionBranchHeadCoordinator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resolves the commit ID of a branch head on a miss.
+     */
+    interface Resolver {
+        String resolve() throws IOException, InterruptedException;
+    }
+
+    private static final class Entry {
+        final CompletableFuture<String> head = new CompletableFuture<>();
+        volatile long expiresAt = Long.MAX_VALUE; // Set once the lookup completes
+    }
+
+    /**
+     * Get the head commit ID of a branch, sharing recent and in-flight lookups with other pollers.
+     *
+     * @param credentialsKey Credential ID plus a fingerprint of its secret, so same-ID credentials
+     *                       of different accounts never share heads
+     */
+    String getHead(String credentialsKey, String repositoryId, String branch, Resolver resolver)
+            throws IOException, InterruptedException {
+        String key = key(credentialsKey, repositoryId, branch);
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() >= entry.expiresAt) {
+                entries.remove(key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                Entry mine = new Entry();
+                entry = entries.putIfAbsent(key, mine);
+                if (entry == null) {
+                    return resolve(key, mine, resolver);
+                }
+            }
+
+            shared.incrementAndGet();
+            try {
+                return entry.head.get();
+            } catch (ExecutionException e) {
+                // The lookup we waited for failed and has been dropped; retry with our own
+                // only if a newer entry exists, otherwise report the same failure
+                if (entries.get(key) != null) {
+                    continue;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to resolve head of " + branch + ": " + cause, cause);
+            }
+        }
+    }
+
+    private String resolve(String key, Entry entry, Resolver resolver) throws IOException, InterruptedException {
+        lookups.incrementAndGet();
+        try {
+            String head = resolver.resolve();
+            long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0;
+            entry.expiresAt = System.currentTimeMillis() + ttlMillis + jitter;
+            entry.head.complete(head);
+            return head;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            entries.remove(key, entry);
+            entry.head.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Record a head resolved outside the coordinator, so pollers can reuse it. An in-flight
+     * lookup is left alone.
+     */
+    void seed(String credentialsKey, String repositoryId, String branch, String head) {
+        Entry entry = new Entry();
+        long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0;
+        entry.expiresAt = System.currentTimeMillis() + ttlMillis + jitter;
+        entry.head.complete(head);
+        entries.compute(key(credentialsKey, repositoryId, branch),
+            (key, current) -> current != null && !current.head.isDone() ? current : entry);
+    }
+
+    /**
+     * Forget the cached head of a branch so the next poll resolves it again.
+     *
+     * @param branch Branch name or ID as configured in the job, or null for every branch of the repository
+     */
+    public void invalidate(String repositoryId, String branch) {
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String[] parts = keys.next().split("\u0000", -1);
+            if (parts[1].equals(repositoryId) && (branch == null || parts[2].equals(branch))) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static String key(String credentialsKey, String repositoryId, String branch) {
+        return credentialsKey + "\u0000" + repositoryId + "\u0000" + branch;
+    }
+
+    /**
+     * Number of lookups that went to the API.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Number of polls answered by a recent or in-flight lookup.
+     */
+    public long getShared() {
+        return shared.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DiversionBranchHeadCoordinator{" +
+                "entries=" + entries.size() +
+                ", lookups=" + getLookups() +
+                ", shared=" + getShared() +
+                '}';
+    }
+}
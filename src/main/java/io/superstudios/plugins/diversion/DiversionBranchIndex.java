@@ -0,0 +1,125 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller-wide index of branch names to branch IDs, per credential secret and repository, so
+ * a listing made with one account's credential never answers lookups for another.
+ *
+ * Jobs usually configure a branch by name, but the API addresses branches by ID; without the
+ * index every name lookup lists all branches of the repository. An index is rebuilt once it is
+ * older than {@code ttlSeconds}, when a name is not found (at most every few seconds, so a new
+ * branch is picked up without a listing storm for a misspelled one), and after a webhook
+ * reports a branch change.
+ */
+public final class DiversionBranchIndex {
+
+    /** How long a repository's branch listing is trusted. */
+    static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(Math.max(0,
+        SystemProperties.getLong(DiversionBranchIndex.class.getName() + ".ttlSeconds", 300L)));
+
+    /** Minimum age of an index before an unknown name causes it to be rebuilt. */
+    private static final long MISS_REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final DiversionBranchIndex INSTANCE = new DiversionBranchIndex(TTL_MILLIS);
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    DiversionBranchIndex(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static DiversionBranchIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Lists the branches of a repository when the index needs rebuilding.
+     */
+    interface Lister {
+        Collection<DiversionBranch> list() throws IOException, InterruptedException;
+    }
+
+    private static final class Entry {
+        private Map<String, String> ids;
+        private long loadedAt;
+
+        synchronized String resolve(String name, long ttlMillis, Lister lister) throws IOException, InterruptedException {
+            long now = System.currentTimeMillis();
+            if (ids == null || now - loadedAt >= ttlMillis) {
+                load(lister.list());
+            } else if (!ids.containsKey(name) && now - loadedAt >= MISS_REFRESH_MILLIS) {
+                // The branch may have been created since the last listing
+                load(lister.list());
+            }
+            return ids.get(name);
+        }
+
+        synchronized void load(Collection<DiversionBranch> branches) {
+            Map<String, String> loaded = new HashMap<>();
+            for (DiversionBranch branch : branches) {
+                if (branch.getName() != null && branch.getId() != null) {
+                    loaded.put(branch.getName(), branch.getId());
+                }
+            }
+            ids = loaded;
+            loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Get the ID of a branch by name.
+     *
+     * @param credentialsKey Credential ID plus a fingerprint of its secret, as for
+     *                       {@link DiversionBranchHeadCoordinator}
+     * @return the branch ID, or null if the repository has no branch with that name
+     */
+    @CheckForNull
+    String resolve(String credentialsKey, String repositoryId, String branchName, Lister lister)
+            throws IOException, InterruptedException {
+        return entries.computeIfAbsent(key(credentialsKey, repositoryId), key -> new Entry())
+            .resolve(branchName, ttlMillis, lister);
+    }
+
+    /**
+     * Replace a repository's index with a fresh branch listing made with a credential.
+     */
+    void update(String credentialsKey, String repositoryId, Collection<DiversionBranch> branches) {
+        entries.computeIfAbsent(key(credentialsKey, repositoryId), key -> new Entry()).load(branches);
+    }
+
+    /**
+     * Forget a repository's index for every credential, e.g. after a branch was created,
+     * renamed or deleted.
+     */
+    public void invalidate(String repositoryId) {
+        entries.keySet().removeIf(key -> key.endsWith("\u0000" + repositoryId));
+    }
+
+    private static String key(String credentialsKey, String repositoryId) {
+        return credentialsKey + "\u0000" + repositoryId;
+    }
+
+    /**
+     * Forget all indexes.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DiversionBranchIndex{" +
+                "repositories=" + entries.size() +
+                '}';
+    }
+}
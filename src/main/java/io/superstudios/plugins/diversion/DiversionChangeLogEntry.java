@@ -15,7 +15,9 @@ public class DiversionChangeLogEntry extends ChangeLogSet.Entry {
     private final String message;
     private final DiversionAuthor author;
     private final long timestamp;
-    private final java.util.Collection<String> affectedPaths;
+    private final java.util.Collection<String> affectedPaths; // Null when read lazily from the changelog
+    private final DiversionChangeLogPaths changelogPaths;
+    private final int index;
     
     public DiversionChangeLogEntry(String commitId, String message, DiversionAuthor author, long timestamp) {
         this.commitId = commitId;
@@ -23,6 +25,8 @@ public class DiversionChangeLogEntry extends ChangeLogSet.Entry {
         this.author = author;
         this.timestamp = timestamp;
         this.affectedPaths = java.util.Collections.emptyList();
+        this.changelogPaths = null;
+        this.index = -1;
     }
     
     public DiversionChangeLogEntry(String commitId, String message, DiversionAuthor author, long timestamp, java.util.Collection<String> affectedPaths) {
@@ -31,6 +35,24 @@ public class DiversionChangeLogEntry extends ChangeLogSet.Entry {
         this.author = author;
         this.timestamp = timestamp;
         this.affectedPaths = affectedPaths != null ? affectedPaths : java.util.Collections.emptyList();
+        this.changelogPaths = null;
+        this.index = -1;
+    }
+    
+    /**
+     * Create an entry whose affected paths are read from the changelog file on first use.
+     *
+     * @param index Position of the entry in the changelog
+     */
+    DiversionChangeLogEntry(String commitId, String message, DiversionAuthor author, long timestamp,
+                            DiversionChangeLogPaths changelogPaths, int index) {
+        this.commitId = commitId;
+        this.message = message;
+        this.author = author;
+        this.timestamp = timestamp;
+        this.affectedPaths = null;
+        this.changelogPaths = changelogPaths;
+        this.index = index;
     }
     
     @Override
@@ -90,9 +112,16 @@ public class DiversionChangeLogEntry extends ChangeLogSet.Entry {
         return message;
     }
     
+    /**
+     * Paths changed by this commit. For large changelogs these are loaded on demand, for all
+     * entries of the changelog at once.
+     */
     @Override
     public java.util.Collection<String> getAffectedPaths() {
-        return affectedPaths;
+        if (affectedPaths != null) {
+            return affectedPaths;
+        }
+        return changelogPaths.get(index);
     }
     
     /**
@@ -4,109 +4,235 @@ import hudson.model.Run;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.RepositoryBrowser;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Change log parser for Diversion commits.
  * Extends ChangeLogParser to integrate with Jenkins SCM.
+ *
+ * The changelog is read in a single streaming pass, so memory use grows with the entries
+ * kept rather than with the size of the XML document. The {@code <files>} of the entries are
+ * skipped; {@link DiversionChangeLogPaths} reads the paths of all entries in one more pass
+ * when {@link DiversionChangeLogEntry#getAffectedPaths()} first needs them.
  */
 public class DiversionChangeLogParser extends hudson.scm.ChangeLogParser {
-    
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionChangeLogParser.class.getName());
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // The changelog never uses a DTD; refuse them so no external entity is ever resolved
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
     @Override
-    public ChangeLogSet<? extends ChangeLogSet.Entry> parse(Run build, 
+    public ChangeLogSet<? extends ChangeLogSet.Entry> parse(Run build,
                                                            RepositoryBrowser browser,
-                                                           File changelogFile) 
+                                                           File changelogFile)
                                                            throws IOException {
-        
+
         List<DiversionChangeLogEntry> entries = new ArrayList<>();
-        
+
         // If no changelog file exists, return empty set
         if (changelogFile == null || !changelogFile.exists()) {
             return new DiversionChangeLogSet(build, entries);
         }
-        
-        try {
-            // Parse the XML changelog file
-            javax.xml.parsers.DocumentBuilderFactory factory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
-            javax.xml.parsers.DocumentBuilder builder = factory.newDocumentBuilder();
-            org.w3c.dom.Document doc = builder.parse(changelogFile);
-            
-            org.w3c.dom.NodeList entryNodes = doc.getElementsByTagName("entry");
-            
-            for (int i = 0; i < entryNodes.getLength(); i++) {
-                org.w3c.dom.Element entryElement = (org.w3c.dom.Element) entryNodes.item(i);
-                
-                String commitId = getElementText(entryElement, "commitId");
-                String msg = getElementText(entryElement, "msg");
-                String authorName = getElementText(entryElement, "author");
-                String timestampStr = getElementText(entryElement, "timestamp");
-                
-                long timestamp = 0;
-                try {
-                    timestamp = Long.parseLong(timestampStr);
-                } catch (NumberFormatException e) {
-                    // Use current time if parsing fails
-                    timestamp = System.currentTimeMillis() / 1000;
+
+        DiversionChangeLogPaths paths = new DiversionChangeLogPaths(changelogFile);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(changelogFile.toPath()))) {
+            XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("entry")) {
+                        entries.add(readEntry(xml, paths, entries.size()));
+                    }
                 }
-                
-                // Parse changed files if available
-                java.util.Collection<String> affectedPaths = new java.util.ArrayList<>();
-                org.w3c.dom.NodeList fileNodes = entryElement.getElementsByTagName("file");
-                for (int j = 0; j < fileNodes.getLength(); j++) {
-                    String filePath = fileNodes.item(j).getTextContent();
-                    if (filePath != null && !filePath.trim().isEmpty()) {
-                        affectedPaths.add(filePath.trim());
+            } finally {
+                xml.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            // Keep whatever was read; a damaged changelog must not fail the build
+            LOGGER.log(Level.WARNING, "Error parsing changelog " + changelogFile, e);
+        }
+
+        // Create the change log set and set parent for all entries
+        DiversionChangeLogSet changeLogSet = new DiversionChangeLogSet(build, entries);
+        for (DiversionChangeLogEntry entry : entries) {
+            entry.setParentSet(changeLogSet);
+        }
+        return changeLogSet;
+    }
+
+    /**
+     * Read one {@code <entry>} element. The reader is positioned on its start tag and is
+     * left on its end tag.
+     */
+    private DiversionChangeLogEntry readEntry(XMLStreamReader xml, DiversionChangeLogPaths paths, int index) throws XMLStreamException {
+        String commitId = "";
+        String msg = "";
+        String authorName = "";
+        String timestampStr = "";
+        Collection<String> affectedPaths = new ArrayList<>();
+        int fileCount = 0;
+
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            // getElementText() consumes the element's end tag, so depth is unchanged for leaves
+            switch (xml.getLocalName()) {
+                case "commitId":
+                    commitId = xml.getElementText();
+                    break;
+                case "msg":
+                    msg = xml.getElementText();
+                    break;
+                case "author":
+                    authorName = xml.getElementText();
+                    break;
+                case "timestamp":
+                    timestampStr = xml.getElementText();
+                    break;
+                case "files":
+                    // Read later, for all entries at once
+                    fileCount += skipFiles(xml);
+                    break;
+                case "file":
+                    String filePath = xml.getElementText().trim();
+                    if (!filePath.isEmpty()) {
+                        affectedPaths.add(filePath);
                     }
+                    break;
+                default:
+                    // Other containers, and elements from newer writers
+                    depth++;
+                    break;
+            }
+        }
+
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(timestampStr.trim());
+        } catch (NumberFormatException e) {
+            // Use current time if parsing fails
+            timestamp = System.currentTimeMillis() / 1000;
+        }
+
+        // Create a simple author object
+        DiversionAuthor author = new DiversionAuthor();
+        author.setName(authorName);
+        author.setEmail("");
+        author.setFullName(authorName);
+        author.setId("");
+
+        if (fileCount > 0) {
+            return new DiversionChangeLogEntry(commitId, msg, author, timestamp, paths, index);
+        }
+        return new DiversionChangeLogEntry(commitId, msg, author, timestamp, affectedPaths);
+    }
+    
+    /**
+     * Skip a {@code <files>} element, leaving the reader on its end tag.
+     *
+     * @return the number of {@code <file>} elements skipped
+     */
+    private static int skipFiles(XMLStreamReader xml) throws XMLStreamException {
+        int count = 0;
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (xml.getLocalName().equals("file")) {
+                    count++;
                 }
-                
-                // Create a simple author object
-                DiversionAuthor author = new DiversionAuthor();
-                author.setName(authorName);
-                author.setEmail("");
-                author.setFullName(authorName);
-                author.setId("");
-                
-                DiversionChangeLogEntry entry = new DiversionChangeLogEntry(
-                    commitId,
-                    msg,
-                    author,
-                    timestamp,
-                    affectedPaths
-                );
-                entries.add(entry);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
             }
-            
-            // Create the change log set and set parent for all entries
-            DiversionChangeLogSet changeLogSet = new DiversionChangeLogSet(build, entries);
-            // Set parent for each entry after the set is created
-            for (DiversionChangeLogEntry entry : entries) {
-                entry.setParentSet(changeLogSet);
+        }
+        return count;
+    }
+    
+    /**
+     * Read the affected paths of every entry in one pass over a changelog file.
+     * Like {@link #parse}, a damaged changelog yields the paths read before the damage.
+     *
+     * @return the paths by entry position; entries without files have an empty list
+     */
+    static List<List<String>> readAffectedPaths(File changelogFile) {
+        List<List<String>> paths = new ArrayList<>();
+        List<String> current = null;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(changelogFile.toPath()))) {
+            XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    if (xml.getLocalName().equals("entry")) {
+                        if (current != null) {
+                            paths.add(Collections.unmodifiableList(current));
+                        }
+                        current = new ArrayList<>();
+                    } else if (current != null && xml.getLocalName().equals("files")) {
+                        readFiles(xml, current);
+                    }
+                }
+            } finally {
+                xml.close();
             }
-            
-            return changeLogSet;
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            // If we can't parse the changelog file, return empty set
-            // This prevents the build from failing
-            System.err.println("Error parsing changelog: " + e.getMessage());
-            e.printStackTrace();
+        } catch (IOException | XMLStreamException e) {
+            LOGGER.log(Level.WARNING, "Error reading affected paths from changelog " + changelogFile, e);
+        }
+        if (current != null) {
+            paths.add(Collections.unmodifiableList(current));
         }
-        
-        return new DiversionChangeLogSet(build, entries);
+        return paths;
     }
     
     /**
-     * Helper method to get text content from XML element
+     * Collect non-empty {@code <file>} paths up to the next {@code </files>}.
+     *
+     * @return the number of {@code <file>} elements read, including empty ones
      */
-    private String getElementText(org.w3c.dom.Element parent, String tagName) {
-        org.w3c.dom.NodeList nodes = parent.getElementsByTagName(tagName);
-        if (nodes.getLength() > 0) {
-            return nodes.item(0).getTextContent();
+    private static int readFiles(XMLStreamReader xml, List<String> paths) throws XMLStreamException {
+        int count = 0;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("file")) {
+                count++;
+                String filePath = xml.getElementText().trim();
+                if (!filePath.isEmpty()) {
+                    paths.add(filePath);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("files")) {
+                break;
+            }
         }
-        return "";
+        return count;
     }
-}
\ No newline at end of file
+}
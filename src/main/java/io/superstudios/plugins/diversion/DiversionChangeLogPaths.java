@@ -0,0 +1,36 @@
+package io.superstudios.plugins.diversion;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The affected paths of every entry of one changelog file.
+ *
+ * They are read in a single sequential pass the first time any entry needs them, so rendering
+ * a Changes page reads the file once however many entries it shows. The result is held softly
+ * and read again if it was dropped under memory pressure. If the file is damaged, the paths read
+ * before the damage are kept, so the failure is not repeated for every entry.
+ */
+final class DiversionChangeLogPaths {
+
+    private final File file;
+    private SoftReference<List<List<String>>> loaded;
+
+    DiversionChangeLogPaths(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the paths of the entry at a position in the changelog.
+     */
+    synchronized List<String> get(int index) {
+        List<List<String>> paths = loaded != null ? loaded.get() : null;
+        if (paths == null) {
+            paths = DiversionChangeLogParser.readAffectedPaths(file);
+            loaded = new SoftReference<>(paths);
+        }
+        return index < paths.size() ? paths.get(index) : Collections.emptyList();
+    }
+}
@@ -0,0 +1,113 @@
+package io.superstudios.plugins.diversion;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes commits in the changelog format read by {@link DiversionChangeLogParser}.
+ * Used both by checkout and by {@link DiversionSCMFileSystem#changesSince}.
+ *
+ * Entries are streamed to the output as they are iterated; nothing is buffered per changelog.
+ */
+final class DiversionChangeLogWriter {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    private DiversionChangeLogWriter() {}
+
+    /**
+     * Write a changelog file, replacing any existing content.
+     */
+    static void write(Iterable<DiversionCommit> commits, File changelogFile) throws IOException {
+        try (OutputStream out = new FileOutputStream(changelogFile)) {
+            write(commits, out);
+        }
+    }
+
+    /**
+     * Write an empty changelog file.
+     */
+    static void writeEmpty(File changelogFile) throws IOException {
+        write(Collections.emptyList(), changelogFile);
+    }
+
+    /**
+     * Write a changelog to a stream as UTF-8. The stream is flushed but not closed.
+     */
+    static void write(Iterable<DiversionCommit> commits, OutputStream out) throws IOException {
+        try {
+            XMLStreamWriter xml = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("changelog");
+
+            for (DiversionCommit commit : commits) {
+                xml.writeCharacters("\n  ");
+                xml.writeStartElement("entry");
+                writeElement(xml, "commitId", commit.getCommitId());
+                writeElement(xml, "msg", commit.getCommitMessage());
+                writeElement(xml, "author", commit.getAuthor() != null ? commit.getAuthor().getName() : null);
+                writeElement(xml, "timestamp", Long.toString(commit.getCreatedTs()));
+
+                // Add changed files if available
+                if (commit.getChangedFiles() != null && !commit.getChangedFiles().isEmpty()) {
+                    xml.writeCharacters("\n    ");
+                    xml.writeStartElement("files");
+                    for (String file : commit.getChangedFiles()) {
+                        xml.writeCharacters("\n      ");
+                        xml.writeStartElement("file");
+                        xml.writeCharacters(sanitize(file));
+                        xml.writeEndElement();
+                    }
+                    xml.writeCharacters("\n    ");
+                    xml.writeEndElement();
+                }
+
+                xml.writeCharacters("\n  ");
+                xml.writeEndElement();
+            }
+
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write changelog: " + e.getMessage(), e);
+        }
+        out.flush();
+    }
+
+    private static void writeElement(XMLStreamWriter xml, String name, String text) throws XMLStreamException {
+        xml.writeCharacters("\n    ");
+        xml.writeStartElement(name);
+        xml.writeCharacters(sanitize(text));
+        xml.writeEndElement();
+    }
+
+    /**
+     * Drop characters XML 1.0 cannot represent (e.g. control characters in a commit message),
+     * which would otherwise make the whole changelog unreadable.
+     */
+    private static String sanitize(String text) {
+        if (text == null) return "";
+        StringBuilder clean = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean valid = c == '\t' || c == '\n' || c == '\r' || (c >= 0x20 && c <= 0xFFFD);
+            if (!valid && clean == null) {
+                clean = new StringBuilder(text.length()).append(text, 0, i);
+            } else if (valid && clean != null) {
+                clean.append(c);
+            }
+        }
+        return clean != null ? clean.toString() : text;
+    }
+}
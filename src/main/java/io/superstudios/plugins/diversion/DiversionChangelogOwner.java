@@ -0,0 +1,50 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.model.Run;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers which Diversion checkout already wrote a changelog for a build.
+ *
+ * A pipeline build may check out both its script and one or more libraries from Diversion;
+ * this state lets later checkouts skip writing duplicate changelog entries. It is only needed
+ * while the build runs, so it is held in memory against the build and never persisted; the
+ * entry goes away once the build is no longer referenced.
+ */
+final class DiversionChangelogOwner {
+
+    /**
+     * Which checkout owns the changelog so far.
+     */
+    enum Owner {
+        /** The pipeline script checkout wrote the changelog. */
+        SCRIPT,
+        /** A library checkout wrote the changelog. */
+        LIBRARY,
+        /** A library checkout from the pipeline's own repository skipped its changelog. */
+        LIBRARY_SKIPPED
+    }
+
+    private static final Map<Run<?, ?>, Owner> OWNERS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private DiversionChangelogOwner() {}
+
+    /**
+     * Get the changelog owner recorded for a build.
+     *
+     * @return the owner, or null if no Diversion checkout has run for this build yet
+     */
+    static Owner ownerOf(Run<?, ?> build) {
+        return OWNERS.get(build);
+    }
+
+    /**
+     * Record the changelog owner for a build, replacing any previous value.
+     */
+    static void record(Run<?, ?> build, Owner owner) {
+        OWNERS.put(build, owner);
+    }
+}
@@ -21,8 +21,8 @@ public class DiversionCommit {
     public DiversionCommit(JsonNode json) {
         this.commitId = json.get("commit_id").asText();
         this.createdTs = json.get("created_ts").asLong();
-        this.commitMessage = json.get("commit_message").asText();
-        this.branchId = json.get("branch_id").asText();
+        this.commitMessage = json.path("commit_message").asText(null);
+        this.branchId = json.path("branch_id").asText(null);
         
         JsonNode authorNode = json.get("author");
         if (authorNode != null) {
@@ -37,10 +37,10 @@ public class DiversionCommit {
             }
         }
         
-        // Parse changed files if available
-        this.changedFiles = new ArrayList<>();
+        // Parse changed files if available; listings usually leave them out, so absent means unknown
         JsonNode filesNode = json.get("files");
         if (filesNode != null && filesNode.isArray()) {
+            this.changedFiles = new ArrayList<>();
             for (JsonNode fileNode : filesNode) {
                 String filePath = fileNode.asText();
                 this.changedFiles.add(filePath);
@@ -67,6 +67,7 @@ public class DiversionCommit {
     public String[] getParents() { return parents; }
     public void setParents(String[] parents) { this.parents = parents; }
     
+    /** Paths changed by this commit, or null if the response did not include them. */
     public List<String> getChangedFiles() { return changedFiles; }
     public void setChangedFiles(List<String> changedFiles) { this.changedFiles = changedFiles; }
 }
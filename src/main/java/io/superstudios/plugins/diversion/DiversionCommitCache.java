@@ -0,0 +1,193 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controller-wide cache of commit details, keyed by repository and commit.
+ *
+ * Commits are immutable, so entries never go stale. The cache keeps the most recently used
+ * {@code maxEntries} commits in memory, backed by {@link DiversionCommitStore} on disk so
+ * commits fetched before a controller restart are not requested again. Concurrent loads of
+ * the same commit share one request; if the thread making it is interrupted, waiters load the
+ * commit themselves. Cached commits are shared between callers and must not
+ * be modified.
+ */
+public final class DiversionCommitCache {
+
+    /** Maximum number of commits held in memory. */
+    static final int MAX_ENTRIES = Math.max(0,
+        SystemProperties.getInteger(DiversionCommitCache.class.getName() + ".maxEntries", 10_000));
+
+    private static final DiversionCommitCache INSTANCE = new DiversionCommitCache(MAX_ENTRIES, true);
+
+    private final int maxEntries;
+    private final boolean persistent;
+    private final LinkedHashMap<String, DiversionCommit> entries;
+    private final ConcurrentMap<String, CompletableFuture<DiversionCommit>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+
+    DiversionCommitCache(int maxEntries, boolean persistent) {
+        this.maxEntries = maxEntries;
+        this.persistent = persistent;
+        this.entries = new LinkedHashMap<String, DiversionCommit>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DiversionCommit> eldest) {
+                return size() > DiversionCommitCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static DiversionCommitCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads a commit on a cache miss.
+     */
+    interface Loader {
+        DiversionCommit load() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Get a cached commit without loading it.
+     */
+    @CheckForNull
+    synchronized DiversionCommit getIfPresent(String repositoryId, String commitId) {
+        return entries.get(key(repositoryId, commitId));
+    }
+
+    /**
+     * Get the details of a commit, loading them on a miss.
+     */
+    DiversionCommit get(String repositoryId, String commitId, Loader loader) throws IOException, InterruptedException {
+        String key = key(repositoryId, commitId);
+
+        while (true) {
+            synchronized (this) {
+                DiversionCommit cached = entries.get(key);
+                if (cached != null) {
+                    hits.incrementAndGet();
+                    return cached;
+                }
+            }
+
+            CompletableFuture<DiversionCommit> mine = new CompletableFuture<>();
+            CompletableFuture<DiversionCommit> pending = loading.putIfAbsent(key, mine);
+            if (pending == null) {
+                return load(repositoryId, commitId, key, loader, mine);
+            }
+
+            // Another thread is already fetching this commit; wait for its result
+            hits.incrementAndGet();
+            try {
+                return pending.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (isInterruption(cause)) {
+                    // The thread loading it was interrupted, not us; load it ourselves
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to load commit " + key + ": " + cause, cause);
+            }
+        }
+    }
+
+    private DiversionCommit load(String repositoryId, String commitId, String key, Loader loader,
+                                 CompletableFuture<DiversionCommit> mine) throws IOException, InterruptedException {
+        try {
+            DiversionCommit commit = persistent ? DiversionCommitStore.get().read(repositoryId, commitId) : null;
+            if (commit != null) {
+                diskHits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                commit = loader.load();
+                if (persistent) {
+                    DiversionCommitStore.get().write(repositoryId, commit);
+                }
+            }
+            synchronized (this) {
+                entries.put(key, commit);
+            }
+            mine.complete(commit);
+            return commit;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    /**
+     * Whether a load failed because its thread was interrupted or cancelled, rather than
+     * because of the commit itself.
+     */
+    static boolean isInterruption(Throwable cause) {
+        return cause instanceof InterruptedException
+            || cause instanceof InterruptedIOException
+            || cause instanceof ClosedByInterruptException
+            || cause instanceof CancellationException;
+    }
+
+    private static String key(String repositoryId, String commitId) {
+        return repositoryId + "@" + commitId;
+    }
+
+    /**
+     * Drop all cached commits.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of commits that had to be fetched from the API.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of commits read back from the on-disk store.
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DiversionCommitCache{" +
+                "entries=" + getEntryCount() + "/" + maxEntries +
+                ", hits=" + getHits() +
+                ", diskHits=" + getDiskHits() +
+                ", misses=" + getMisses() +
+                '}';
+    }
+}
@@ -0,0 +1,124 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fills in the changed files of changelog commits that were listed without them.
+ *
+ * Commit listings usually omit the files, while the commit details include them. Details
+ * already in {@link DiversionCommitCache} are used directly; the rest are fetched in parallel
+ * on {@link DiversionRequestExecutor}, and whatever has not arrived within {@code budgetSeconds}
+ * is left without files, so a slow API never holds up checkout. Cached commits are shared, so
+ * commits are replaced by their details rather than modified.
+ */
+final class DiversionCommitEnricher {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionCommitEnricher.class.getName());
+
+    /** Time allowed for fetching commit details, for all commits of one changelog together. */
+    static final long BUDGET_MILLIS = TimeUnit.SECONDS.toMillis(Math.max(0,
+        SystemProperties.getLong(DiversionCommitEnricher.class.getName() + ".budgetSeconds", 5L)));
+
+    private final DiversionApiClient client;
+    private final String repositoryId;
+    private final long budgetMillis;
+
+    private int enriched;
+    private int missing;
+
+    DiversionCommitEnricher(DiversionApiClient client, String repositoryId, long budgetMillis) {
+        this.client = client;
+        this.repositoryId = repositoryId;
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Get the commits with changed files added where they could be found in time.
+     *
+     * @return the commits in the same order; commits still without files are returned unchanged
+     */
+    List<DiversionCommit> enrich(List<DiversionCommit> commits) throws InterruptedException {
+        List<DiversionCommit> result = new ArrayList<>(commits);
+        List<Integer> toFetch = new ArrayList<>();
+        for (int i = 0; i < result.size(); i++) {
+            DiversionCommit commit = result.get(i);
+            if (commit.getChangedFiles() != null) {
+                continue;
+            }
+            DiversionCommit cached = DiversionCommitCache.get().getIfPresent(repositoryId, commit.getCommitId());
+            if (cached != null && cached.getChangedFiles() != null) {
+                result.set(i, cached);
+                enriched++;
+            } else {
+                toFetch.add(i);
+            }
+        }
+        if (toFetch.isEmpty()) {
+            return result;
+        }
+        if (budgetMillis <= 0) {
+            missing += toFetch.size();
+            return result;
+        }
+
+        List<Future<DiversionCommit>> details = new ArrayList<>(toFetch.size());
+        try {
+            for (int i : toFetch) {
+                String commitId = result.get(i).getCommitId();
+                details.add(DiversionRequestExecutor.get().submit(() -> client.getCommitDetails(repositoryId, commitId)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+            for (int j = 0; j < details.size(); j++) {
+                DiversionCommit commit = detailsOf(details.get(j), deadline);
+                if (commit != null && commit.getChangedFiles() != null) {
+                    result.set(toFetch.get(j), commit);
+                    enriched++;
+                } else {
+                    missing++;
+                }
+            }
+        } finally {
+            // Requests still queued when the budget runs out are dropped. Running ones are left to
+            // finish: other builds may be waiting on the same commit, and the result is cached
+            for (Future<DiversionCommit> future : details) {
+                future.cancel(false);
+            }
+        }
+        return result;
+    }
+
+    private static DiversionCommit detailsOf(Future<DiversionCommit> future, long deadline) throws InterruptedException {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINE, "Could not get commit details", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Number of commits that received their changed files.
+     */
+    int getEnriched() {
+        return enriched;
+    }
+
+    /**
+     * Number of commits left without changed files, because of the time budget or a failed request.
+     */
+    int getMissing() {
+        return missing;
+    }
+}
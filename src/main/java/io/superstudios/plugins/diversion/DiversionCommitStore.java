@@ -0,0 +1,342 @@
+package io.superstudios.plugins.diversion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent store of commit details, backing {@link DiversionCommitCache} across controller restarts.
+ *
+ * Each repository has one file of compact JSON lines under
+ * {@code JENKINS_HOME/caches/diversion/commits}. A repository's file is indexed (commit ID to
+ * line offset) in one streaming pass the first time it is used; individual commits are then
+ * read with a single positioned read on a channel kept open while the file is in use and closed
+ * after {@code IDLE_CLOSE_MILLIS} without use or at shutdown. Commits are immutable,
+ * so new commits are appended; once a file holds {@code maxEntriesPerRepository} commits it is
+ * rewritten with only the most recently used three quarters. A line left incomplete by a crash
+ * is truncated away when the file is indexed.
+ */
+final class DiversionCommitStore {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionCommitStore.class.getName());
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Number of commits kept per repository before its file is compacted. */
+    static final int MAX_ENTRIES_PER_REPOSITORY = Math.max(1,
+        SystemProperties.getInteger(DiversionCommitStore.class.getName() + ".maxEntriesPerRepository", 50000));
+
+    /** How long a repository's file stays open without being used. */
+    private static final long IDLE_CLOSE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static volatile DiversionCommitStore instance;
+
+    private final Path directory;
+    private final Map<String, RepositoryFile> files = new ConcurrentHashMap<>();
+
+    DiversionCommitStore(Path directory) {
+        this.directory = directory;
+    }
+
+    static DiversionCommitStore get() {
+        DiversionCommitStore store = instance;
+        if (store == null) {
+            synchronized (DiversionCommitStore.class) {
+                store = instance;
+                if (store == null) {
+                    Path dir = Jenkins.get().getRootDir().toPath().resolve("caches").resolve("diversion").resolve("commits");
+                    store = new DiversionCommitStore(dir);
+                    DiversionCommitStore created = store;
+                    Timer.get().scheduleWithFixedDelay(() -> created.closeIdle(IDLE_CLOSE_MILLIS),
+                        IDLE_CLOSE_MILLIS, IDLE_CLOSE_MILLIS, TimeUnit.MILLISECONDS);
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Read a stored commit.
+     *
+     * @return the commit, or null if it has not been stored or cannot be read
+     */
+    @CheckForNull
+    DiversionCommit read(String repositoryId, String commitId) {
+        try {
+            return file(repositoryId).read(commitId);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not read commit " + commitId + " from the commit store", e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a commit. Failures are logged; the store is only an optimization.
+     */
+    void write(String repositoryId, DiversionCommit commit) {
+        try {
+            file(repositoryId).append(commit);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not write commit " + commit.getCommitId() + " to the commit store", e);
+        }
+    }
+
+    /**
+     * Close the files of repositories not used within {@code idleMillis}.
+     */
+    void closeIdle(long idleMillis) {
+        long now = System.currentTimeMillis();
+        for (RepositoryFile file : files.values()) {
+            file.closeIfIdle(now, idleMillis);
+        }
+    }
+
+    @Terminator
+    public static void shutdown() {
+        DiversionCommitStore store = instance;
+        if (store != null) {
+            store.closeIdle(0);
+        }
+    }
+
+    private RepositoryFile file(String repositoryId) {
+        return files.computeIfAbsent(repositoryId,
+            id -> new RepositoryFile(directory.resolve(DiversionTokenCache.fingerprint(id) + ".jsonl"), MAX_ENTRIES_PER_REPOSITORY));
+    }
+
+    /**
+     * One repository's commit file, its lazily built index and a channel reused for all reads and
+     * writes while the file is in use.
+     */
+    private static final class RepositoryFile {
+        private final Path path;
+        private final int maxEntries;
+        /** Commit ID to {offset, length}, least recently used first. */
+        private LinkedHashMap<String, long[]> index;
+        private FileChannel channel;
+        private long lastUsed;
+
+        RepositoryFile(Path path, int maxEntries) {
+            this.path = path;
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized DiversionCommit read(String commitId) throws IOException {
+            ensureIndexed();
+            long[] location = index.get(commitId);
+            if (location == null) {
+                return null;
+            }
+            return fromJson(MAPPER.readTree(readLine(location)));
+        }
+
+        synchronized void append(DiversionCommit commit) throws IOException {
+            ensureIndexed();
+            if (index.containsKey(commit.getCommitId())) {
+                return;
+            }
+            if (index.size() >= maxEntries) {
+                compact();
+            }
+            byte[] line = MAPPER.writeValueAsBytes(toJson(commit));
+            FileChannel channel = channel();
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(line.length + 1);
+            buffer.put(line).put((byte) '\n').flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            index.put(commit.getCommitId(), new long[] {offset, line.length});
+        }
+
+        private byte[] readLine(long[] location) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) location[1]);
+            FileChannel channel = channel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, location[0] + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + path);
+                }
+            }
+            return buffer.array();
+        }
+
+        /**
+         * Rewrite the file with only the most recently used entries, dropping the rest.
+         */
+        private void compact() throws IOException {
+            int drop = index.size() - maxEntries + Math.max(1, maxEntries / 4);
+            Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            LinkedHashMap<String, long[]> kept = new LinkedHashMap<>(16, 0.75f, true);
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    long offset = 0;
+                    int skipped = 0;
+                    for (Map.Entry<String, long[]> entry : index.entrySet()) {
+                        if (skipped < drop) {
+                            skipped++;
+                            continue;
+                        }
+                        byte[] line = readLine(entry.getValue());
+                        out.write(line);
+                        out.write('\n');
+                        kept.put(entry.getKey(), new long[] {offset, line.length});
+                        offset += line.length + 1;
+                    }
+                }
+                closeChannel();
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            index = kept;
+            LOGGER.log(Level.FINE, "Compacted {0} to {1} commits", new Object[] {path, kept.size()});
+        }
+
+        /**
+         * Get the open channel, opening the file again if it was closed while idle or by an
+         * interrupted read or write.
+         */
+        private FileChannel channel() throws IOException {
+            lastUsed = System.currentTimeMillis();
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        synchronized void closeIfIdle(long now, long idleMillis) {
+            if (channel != null && now - lastUsed >= idleMillis) {
+                closeChannel();
+            }
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not close " + path, e);
+                }
+                channel = null;
+            }
+        }
+
+        /**
+         * Build the index by streaming through the file once.
+         */
+        private void ensureIndexed() throws IOException {
+            if (index != null) {
+                return;
+            }
+            Files.createDirectories(path.getParent());
+            LinkedHashMap<String, long[]> loaded = new LinkedHashMap<>(16, 0.75f, true);
+            long start = 0;
+            if (Files.exists(path)) {
+                long position = 0;
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+                    int b;
+                    while ((b = in.read()) != -1) {
+                        position++;
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        try {
+                            JsonNode node = MAPPER.readTree(line.toByteArray());
+                            JsonNode id = node != null ? node.get("commit_id") : null;
+                            if (id != null) {
+                                loaded.put(id.asText(), new long[] {start, line.size()});
+                            }
+                        } catch (IOException e) {
+                            LOGGER.log(Level.FINE, "Skipping unreadable line in " + path, e);
+                        }
+                        line.reset();
+                        start = position;
+                    }
+                }
+            }
+            FileChannel channel = channel();
+            if (start < channel.size()) {
+                // Incomplete last line from an interrupted write
+                channel.truncate(start);
+            }
+            index = loaded;
+        }
+    }
+
+    /**
+     * Serialize a commit in the API's own field layout so {@link DiversionCommit#DiversionCommit(JsonNode)} reads it back.
+     */
+    static ObjectNode toJson(DiversionCommit commit) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("commit_id", commit.getCommitId());
+        node.put("created_ts", commit.getCreatedTs());
+        node.put("commit_message", commit.getCommitMessage());
+        node.put("branch_id", commit.getBranchId());
+
+        DiversionAuthor author = commit.getAuthor();
+        if (author != null) {
+            ObjectNode authorNode = node.putObject("author");
+            putIfNotNull(authorNode, "id", author.getId());
+            putIfNotNull(authorNode, "name", author.getName());
+            putIfNotNull(authorNode, "full_name", author.getFullName());
+            putIfNotNull(authorNode, "email", author.getEmail());
+            putIfNotNull(authorNode, "image", author.getImage());
+        }
+        if (commit.getParents() != null) {
+            ArrayNode parents = node.putArray("parents");
+            for (String parent : commit.getParents()) {
+                parents.add(parent);
+            }
+        }
+        if (commit.getChangedFiles() != null) {
+            ArrayNode changedFiles = node.putArray("files");
+            for (String file : commit.getChangedFiles()) {
+                changedFiles.add(file);
+            }
+        }
+        return node;
+    }
+
+    static DiversionCommit fromJson(JsonNode node) {
+        return new DiversionCommit(node);
+    }
+
+    private static void putIfNotNull(ObjectNode node, String field, String value) {
+        if (value != null) {
+            node.put(field, value);
+        }
+    }
+}
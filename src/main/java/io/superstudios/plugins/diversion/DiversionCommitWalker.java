@@ -0,0 +1,258 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the commits reachable from one commit but not from another by following parent links.
+ *
+ * Commits are visited newest first. Ancestors of the stop commit are marked as already built
+ * and their marks propagate to their own parents, so the walk ends as soon as every commit
+ * left to visit is known to be an ancestor of the stop commit (i.e. at the merge base),
+ * instead of running to the root. Commits are loaded a batch at a time: a page of recent
+ * commits is listed up front and listed again with a doubled limit when the walk runs past
+ * it, and whatever the listing does not cover is fetched for the whole frontier at once (the
+ * unseen parents of every queued commit) on {@link DiversionRequestExecutor}.
+ */
+final class DiversionCommitWalker {
+
+    /** Maximum number of commits returned by a single walk. */
+    static final int MAX_COMMITS = Math.max(1,
+        SystemProperties.getInteger(DiversionCommitWalker.class.getName() + ".maxCommits", 1000));
+
+    /** Number of recent commits listed up front to seed the walk. */
+    private static final int PAGE_SIZE = 100;
+
+    /** Largest listing requested while the walk runs past the listed commits. */
+    private static final int MAX_PAGE_SIZE = Math.max(PAGE_SIZE, MAX_COMMITS);
+
+    private static final Comparator<DiversionCommit> NEWEST_FIRST =
+        Comparator.comparingLong(DiversionCommit::getCreatedTs).reversed()
+            .thenComparing(DiversionCommit::getCommitId);
+
+    private final DiversionApiClient client;
+    private final String repositoryId;
+
+    private final Map<String, DiversionCommit> listed = new HashMap<>();
+    private int pageSize;
+    private boolean listedAll;
+
+    private final Map<String, DiversionCommit> loaded = new HashMap<>();
+    private final Set<String> excluded = new HashSet<>();
+    private final Set<String> queued = new HashSet<>();
+    private final Set<String> visited = new HashSet<>();
+    private int includedInQueue;
+    private boolean truncated;
+
+    DiversionCommitWalker(DiversionApiClient client, String repositoryId) {
+        this.client = client;
+        this.repositoryId = repositoryId;
+    }
+
+    /**
+     * Walk from {@code headId} back to {@code stopId}.
+     *
+     * @param stopId Commit whose ancestors are excluded, or null to return only the head commit
+     * @return the commits newest first, at most {@link #MAX_COMMITS}
+     */
+    List<DiversionCommit> walk(String headId, @CheckForNull String stopId) throws IOException, InterruptedException {
+        truncated = false;
+        if (stopId == null) {
+            return new ArrayList<>(List.of(load(Set.of(headId)).get(headId)));
+        }
+        if (headId.equals(stopId)) {
+            return new ArrayList<>();
+        }
+
+        seed();
+
+        PriorityQueue<DiversionCommit> queue = new PriorityQueue<>(NEWEST_FIRST);
+        Set<String> seen = new HashSet<>();
+        loaded.clear();
+        excluded.clear();
+        queued.clear();
+        visited.clear();
+        includedInQueue = 0;
+        excluded.add(stopId);
+        seen.add(headId);
+        seen.add(stopId);
+
+        Set<String> frontier = new LinkedHashSet<>(List.of(headId, stopId));
+        List<DiversionCommit> unexpanded = new ArrayList<>(); // Queued commits whose parents are not seen yet
+        List<DiversionCommit> result = new ArrayList<>();
+
+        while (true) {
+            if (!frontier.isEmpty()) {
+                // Load the parents of everything queued along with the ones just found,
+                // so each request batch covers a whole generation instead of one commit
+                for (DiversionCommit queuedCommit : unexpanded) {
+                    for (String parent : parentsOf(queuedCommit)) {
+                        if (seen.add(parent)) {
+                            frontier.add(parent);
+                        }
+                    }
+                }
+                unexpanded.clear();
+                for (DiversionCommit commit : load(frontier).values()) {
+                    unexpanded.add(commit);
+                    loaded.put(commit.getCommitId(), commit);
+                    queue.add(commit);
+                    queued.add(commit.getCommitId());
+                    if (!excluded.contains(commit.getCommitId())) {
+                        includedInQueue++;
+                    }
+                }
+                frontier.clear();
+            }
+            if (includedInQueue == 0) {
+                break;
+            }
+
+            DiversionCommit commit = queue.poll();
+            String commitId = commit.getCommitId();
+            queued.remove(commitId);
+            visited.add(commitId);
+            boolean isExcluded = excluded.contains(commitId);
+            if (!isExcluded) {
+                includedInQueue--;
+                if (result.size() >= MAX_COMMITS) {
+                    truncated = true;
+                    break;
+                }
+                result.add(commit);
+            }
+
+            for (String parent : parentsOf(commit)) {
+                if (isExcluded) {
+                    exclude(parent);
+                }
+                if (seen.add(parent)) {
+                    frontier.add(parent);
+                }
+            }
+        }
+
+        // With clock skew a commit can be emitted before it is found to be an ancestor of the stop commit
+        result.removeIf(commit -> excluded.contains(commit.getCommitId()));
+        return result;
+    }
+
+    /**
+     * Whether the last walk stopped at {@link #MAX_COMMITS} before reaching the stop commit.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    private static List<String> parentsOf(DiversionCommit commit) {
+        String[] parents = commit.getParents();
+        if (parents == null) {
+            return List.of();
+        }
+        List<String> ids = new ArrayList<>(parents.length);
+        for (String parent : parents) {
+            if (parent != null && !parent.isEmpty()) {
+                ids.add(parent);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Mark a commit as an ancestor of the stop commit. If it was already visited (possible with
+     * clock skew), the mark is carried on to its ancestors right away.
+     */
+    private void exclude(String commitId) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(commitId);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!excluded.add(id)) {
+                continue;
+            }
+            if (queued.contains(id)) {
+                includedInQueue--;
+            }
+            if (visited.contains(id)) {
+                for (String parent : parentsOf(loaded.get(id))) {
+                    pending.push(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * List a page of recent commits once so short ranges need no per-commit requests.
+     */
+    private void seed() throws IOException, InterruptedException {
+        if (pageSize == 0) {
+            list(PAGE_SIZE);
+        }
+    }
+
+    private void list(int limit) throws IOException, InterruptedException {
+        List<DiversionCommit> commits = client.listCommits(repositoryId, limit);
+        pageSize = limit;
+        listedAll = commits.size() < limit;
+        for (DiversionCommit commit : commits) {
+            if (commit.getCommitId() != null && commit.getParents() != null) {
+                listed.put(commit.getCommitId(), commit);
+            }
+        }
+    }
+
+    /**
+     * Load commits, preferring cached details, then the listed commits (listing again with a
+     * doubled limit while some are not covered), then fetching the rest in parallel.
+     */
+    private Map<String, DiversionCommit> load(Set<String> commitIds) throws IOException, InterruptedException {
+        Map<String, DiversionCommit> result = new ConcurrentHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String commitId : commitIds) {
+            DiversionCommit commit = DiversionCommitCache.get().getIfPresent(repositoryId, commitId);
+            if (commit != null) {
+                result.put(commitId, commit);
+            } else {
+                missing.add(commitId);
+            }
+        }
+
+        while (true) {
+            missing.removeIf(commitId -> {
+                DiversionCommit commit = listed.get(commitId);
+                if (commit == null) {
+                    return false;
+                }
+                result.put(commitId, commit);
+                return true;
+            });
+            // One longer listing replaces many single fetches on linear history
+            if (missing.isEmpty() || pageSize == 0 || listedAll || pageSize >= MAX_PAGE_SIZE) {
+                break;
+            }
+            list(Math.min(pageSize * 2, MAX_PAGE_SIZE));
+        }
+
+        DiversionParallelDownloader.Result fetched = DiversionParallelDownloader.downloadAll(
+            missing, DiversionRequestExecutor.get(), DiversionRequestExecutor.RETRIES,
+            commitId -> result.put(commitId, client.getCommitDetails(repositoryId, commitId)));
+        if (!fetched.getFailures().isEmpty()) {
+            throw new IOException("Could not load commit " + fetched.getFailures().get(0));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package io.superstudios.plugins.diversion;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable in-memory index over a repository file tree.
+ *
+ * Every path maps to a node, and every directory node holds its direct children, so
+ * {@code exists}, {@code isDirectory} and child listing cost O(depth + children) instead of
+ * a scan over the whole tree. Intermediate directories are added even when the API
+ * response only lists the files beneath them.
+ */
+public final class DiversionFileTree {
+
+    private final List<DiversionFile> files;
+    private final Map<String, Node> nodes;
+
+    private DiversionFileTree(List<DiversionFile> files) {
+        this.files = Collections.unmodifiableList(files);
+        this.nodes = new HashMap<>(files.size() * 2);
+        nodes.put("", new Node("", true));
+
+        for (DiversionFile file : files) {
+            String path = normalize(file.getPath());
+            if (!path.isEmpty()) {
+                add(path, file.isDirectory());
+            }
+        }
+    }
+
+    /**
+     * Build an index from a flat file listing as returned by the trees endpoint.
+     */
+    public static DiversionFileTree of(List<DiversionFile> files) {
+        return new DiversionFileTree(files);
+    }
+
+    private void add(String path, boolean directory) {
+        Node existing = nodes.get(path);
+        if (existing != null) {
+            if (directory) {
+                existing.markDirectory();
+            }
+            return;
+        }
+
+        int slash = path.lastIndexOf('/');
+        String parentPath = slash < 0 ? "" : path.substring(0, slash);
+        Node parent = nodes.get(parentPath);
+        if (parent == null) {
+            add(parentPath, true);
+            parent = nodes.get(parentPath);
+        }
+        // A path with children is a directory even if it was listed as a blob
+        parent.markDirectory();
+
+        Node node = new Node(path.substring(slash + 1), directory);
+        parent.addChild(node);
+        nodes.put(path, node);
+    }
+
+    private static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    /**
+     * All entries as returned by the API, in their original order.
+     */
+    public List<DiversionFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Number of entries in the tree.
+     */
+    public int size() {
+        return files.size();
+    }
+
+    public boolean exists(String path) {
+        return nodes.containsKey(normalize(path));
+    }
+
+    public boolean isDirectory(String path) {
+        Node node = nodes.get(normalize(path));
+        return node != null && node.directory;
+    }
+
+    public boolean isFile(String path) {
+        Node node = nodes.get(normalize(path));
+        return node != null && !node.directory;
+    }
+
+    /**
+     * Direct children of a directory, in tree order. Empty for files and missing paths.
+     */
+    public Collection<Node> children(String path) {
+        Node node = nodes.get(normalize(path));
+        if (node == null || node.children == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(node.children.values());
+    }
+
+    /**
+     * A file or directory in the index.
+     */
+    public static final class Node {
+        private final String name;
+        private boolean directory;
+        private Map<String, Node> children; // Allocated on first child; most nodes are files
+
+        private Node(String name, boolean directory) {
+            this.name = name;
+            this.directory = directory;
+        }
+
+        private void markDirectory() {
+            directory = true;
+        }
+
+        private void addChild(Node child) {
+            if (children == null) {
+                children = new LinkedHashMap<>();
+            }
+            children.put(child.name, child);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the shared HttpClient used by every DiversionApiClient.
+ *
+ * A single client keeps one connection pool (and one selector thread), so polling, UI dropdowns
+ * and checkouts reuse keep-alive HTTP/2 connections to api.diversion.dev instead of opening new
+ * ones per client instance. The client is keyed by the Jenkins proxy configuration and rebuilt
+ * when those settings change; it is shut down when Jenkins stops.
+ */
+final class DiversionHttpClients {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionHttpClients.class.getName());
+
+    /** How long a replaced client stays alive so requests already in flight can finish. */
+    private static final long RETIRE_GRACE_SECONDS = 60;
+
+    private static volatile PooledClient current;
+
+    private DiversionHttpClients() {}
+
+    /**
+     * Get the shared client for the current Jenkins proxy configuration.
+     */
+    static HttpClient get() {
+        String key = proxyKey(Jenkins.get().proxy);
+        PooledClient client = current;
+        if (client != null && client.key.equals(key)) {
+            return client.httpClient;
+        }
+        return rebuild(key);
+    }
+
+    private static synchronized HttpClient rebuild(String key) {
+        PooledClient client = current;
+        if (client != null && client.key.equals(key)) {
+            return client.httpClient;
+        }
+
+        LOGGER.fine("Creating shared Diversion HTTP client");
+        PooledClient replacement = new PooledClient(key);
+        current = replacement;
+        if (client != null) {
+            client.retire();
+        }
+        return replacement.httpClient;
+    }
+
+    /**
+     * Drop the current client so the next request builds one from the latest proxy settings.
+     */
+    static synchronized void invalidate() {
+        PooledClient client = current;
+        current = null;
+        if (client != null) {
+            client.retire();
+        }
+    }
+
+    @Terminator
+    public static synchronized void shutdown() {
+        PooledClient client = current;
+        current = null;
+        if (client != null) {
+            client.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Identity of a proxy configuration. The password only contributes a fingerprint.
+     */
+    private static String proxyKey(ProxyConfiguration proxy) {
+        if (proxy == null) {
+            return "direct";
+        }
+        String password = Secret.toString(proxy.getSecretPassword());
+        return proxy.getName() + ":" + proxy.getPort()
+            + "|" + proxy.getUserName()
+            + "|" + proxy.getNoProxyHost()
+            + "|" + (password.isEmpty() ? "" : DiversionTokenCache.fingerprint(password));
+    }
+
+    private static final class PooledClient {
+        private final String key;
+        private final ExecutorService executor;
+        private final HttpClient httpClient;
+
+        PooledClient(String key) {
+            this.key = key;
+            this.executor = Executors.newCachedThreadPool(
+                new NamingThreadFactory(new DaemonThreadFactory(), "Diversion HTTP client"));
+            // ProxyConfiguration applies the Jenkins proxy, its authentication and the connect timeout
+            this.httpClient = ProxyConfiguration.newHttpClientBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .executor(executor)
+                .build();
+        }
+
+        void retire() {
+            Timer.get().schedule(executor::shutdown, RETIRE_GRACE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Rebuild the shared client as soon as the proxy settings are saved.
+     */
+    @Extension
+    public static class ProxyChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                invalidate();
+            }
+        }
+    }
+}
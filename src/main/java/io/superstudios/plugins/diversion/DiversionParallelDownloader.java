@@ -0,0 +1,134 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs per-file downloads with bounded concurrency.
+ *
+ * Each file is retried on IOException with exponential backoff. Failures do not abort the
+ * remaining downloads; they are collected and reported in the order the paths were given,
+ * so build logs stay deterministic regardless of which worker finished first.
+ */
+final class DiversionParallelDownloader {
+
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+
+    private DiversionParallelDownloader() {}
+
+    /**
+     * Downloads a single file. Implementations must be safe to call from several threads.
+     */
+    interface FileDownload {
+        void download(String path) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Outcome of a batch download. Serializable so agent-side downloads can report back.
+     */
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int downloaded;
+        private final List<String> failures;
+
+        Result(int downloaded, List<String> failures) {
+            this.downloaded = downloaded;
+            this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+        }
+
+        int getDownloaded() {
+            return downloaded;
+        }
+
+        /**
+         * Failure messages ("path: reason"), in input order.
+         */
+        List<String> getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * Download all paths using at most {@code threads} workers, retrying each failed file
+     * up to {@code retries} more times.
+     */
+    static Result downloadAll(List<String> paths, int threads, int retries, FileDownload download)
+            throws InterruptedException {
+        if (paths.isEmpty()) {
+            return new Result(0, new ArrayList<>());
+        }
+
+        int workers = Math.max(1, Math.min(threads, paths.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers,
+            new NamingThreadFactory(new DaemonThreadFactory(), "Diversion download"));
+        try {
+            return downloadAll(paths, executor, retries, download);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Download all paths on a shared executor, retrying each failed file up to
+     * {@code retries} more times. Concurrency is bounded by the executor.
+     */
+    static Result downloadAll(List<String> paths, ExecutorService executor, int retries, FileDownload download)
+            throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(paths.size());
+        try {
+            for (String path : paths) {
+                futures.add(executor.submit(() -> {
+                    downloadWithRetry(path, retries, download);
+                    return null;
+                }));
+            }
+
+            // Collect in submission order so errors are reported deterministically
+            int downloaded = 0;
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < paths.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    downloaded++;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    failures.add(paths.get(i) + ": " + cause.getMessage());
+                }
+            }
+            return new Result(downloaded, failures);
+        } finally {
+            // On interruption this also cancels downloads that have not finished yet
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static void downloadWithRetry(String path, int retries, FileDownload download)
+            throws IOException, InterruptedException {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                download.download(path);
+                return;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+}
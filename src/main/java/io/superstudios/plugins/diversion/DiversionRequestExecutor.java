@@ -0,0 +1,47 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller-wide thread pool for independent Diversion API requests, such as fetching the
+ * details of changelog commits.
+ *
+ * Callers share a fixed number of threads instead of each creating a pool, so several builds
+ * writing changelogs at once cannot multiply the load on the API. Tasks run on this pool must
+ * not wait for other tasks of the same pool. Idle threads exit after a minute.
+ */
+final class DiversionRequestExecutor {
+
+    /** Maximum number of API requests run concurrently by all callers together. */
+    static final int THREADS = Math.max(1,
+        SystemProperties.getInteger(DiversionRequestExecutor.class.getName() + ".threads", 8));
+
+    /** Additional attempts made for a request that failed. */
+    static final int RETRIES = Math.max(0,
+        SystemProperties.getInteger(DiversionRequestExecutor.class.getName() + ".retries", 2));
+
+    private static final ExecutorService EXECUTOR = newSharedPool(THREADS, "Diversion API request");
+
+    private DiversionRequestExecutor() {}
+
+    static ExecutorService get() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Create a bounded pool meant to live for the lifetime of the controller.
+     */
+    static ExecutorService newSharedPool(int threads, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
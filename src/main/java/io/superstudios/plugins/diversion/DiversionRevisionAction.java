@@ -0,0 +1,126 @@
+package io.superstudios.plugins.diversion;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import hudson.scm.SCMRevisionState;
+
+import java.util.Objects;
+
+/**
+ * Records the Diversion commit a build checked out.
+ *
+ * Checkout resolves the branch to a commit once and attaches this action, so the revision
+ * state computed after the build is the commit that was actually built, without further
+ * API calls. A build that checks out several Diversion branches (e.g. its script and a
+ * library) carries one action per repository and branch. The same actions give checkout
+ * the baseline commit for its changelog.
+ */
+public class DiversionRevisionAction extends InvisibleAction {
+
+    private final String repositoryId;
+    private final String branch;
+    private final String commitId;
+    private final long timestamp;
+
+    DiversionRevisionAction(String repositoryId, String branch, String commitId, long timestamp) {
+        this.repositoryId = repositoryId;
+        this.branch = branch;
+        this.commitId = commitId;
+        this.timestamp = timestamp;
+    }
+
+    public String getRepositoryId() {
+        return repositoryId;
+    }
+
+    /**
+     * The branch name or ID as configured in the job.
+     */
+    public String getBranch() {
+        return branch;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    /**
+     * Commit creation time in seconds, or 0 if it was not known at checkout.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    boolean matches(String repositoryId, String branch) {
+        return Objects.equals(this.repositoryId, repositoryId) && Objects.equals(this.branch, branch);
+    }
+
+    DiversionSCMRevisionState toRevisionState() {
+        return new DiversionSCMRevisionState(commitId, timestamp);
+    }
+
+    /**
+     * Get the commit a build checked out from a repository and branch.
+     *
+     * @return the action, or null if the build did not check out that branch
+     */
+    @CheckForNull
+    static DiversionRevisionAction find(Run<?, ?> build, String repositoryId, String branch) {
+        for (DiversionRevisionAction action : build.getActions(DiversionRevisionAction.class)) {
+            if (action.matches(repositoryId, branch)) {
+                return action;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the commit checked out by the most recent earlier build that completed with a usable
+     * result. Failed, aborted and still running builds are skipped, so their commits are
+     * reported again by the next build that succeeds.
+     *
+     * The job's last successful build is a permalink Jenkins keeps up to date, so this is a
+     * single lookup; only when a later build already succeeded (concurrent builds) are earlier
+     * builds searched. Builds from before this action existed are read from their revision state
+     * only when that is a single Diversion state; otherwise the changelog starts over.
+     *
+     * @return the commit ID, or null if no such build checked out that branch
+     */
+    @CheckForNull
+    static String findPreviousCommitId(Run<?, ?> build, String repositoryId, String branch) {
+        Run<?, ?> previous = build.getParent().getLastSuccessfulBuild();
+        if (previous != null && previous.getNumber() >= build.getNumber()) {
+            previous = build.getPreviousSuccessfulBuild();
+        }
+        if (previous == null) {
+            return null;
+        }
+        DiversionRevisionAction action = find(previous, repositoryId, branch);
+        if (action != null) {
+            return action.getCommitId();
+        }
+        if (previous.getAction(DiversionRevisionAction.class) == null) {
+            // Built before this action existed; a plain Diversion revision state can only be ours
+            SCMRevisionState state = previous.getAction(SCMRevisionState.class);
+            if (state instanceof DiversionSCMRevisionState) {
+                return ((DiversionSCMRevisionState) state).getCommitId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record the commit checked out for a repository and branch, replacing an earlier
+     * checkout of the same branch in this build.
+     */
+    static void record(Run<?, ?> build, String repositoryId, String branch, String commitId, long timestamp) {
+        synchronized (build) {
+            DiversionRevisionAction existing = find(build, repositoryId, branch);
+            if (existing != null) {
+                build.removeAction(existing);
+            }
+            build.addAction(new DiversionRevisionAction(repositoryId, branch, commitId, timestamp));
+        }
+    }
+}
@@ -16,6 +16,7 @@ import jenkins.scm.api.SCMHead;
 import jenkins.scm.api.SCMRevision;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -39,11 +40,20 @@ import java.util.List;
  */
 public class DiversionSCM extends SCM {
     
+    /** Number of parallel workers used to download library files. */
+    static final int DOWNLOAD_THREADS = Math.max(1,
+        SystemProperties.getInteger(DiversionSCM.class.getName() + ".downloadThreads", 8));
+    
+    /** Additional attempts made for a library file whose download failed. */
+    static final int DOWNLOAD_RETRIES = Math.max(0,
+        SystemProperties.getInteger(DiversionSCM.class.getName() + ".downloadRetries", 2));
+    
     private final String repositoryId;
     private final String credentialsId;
     private String branch = "main";
     private String scriptPath;
     private String libraryPath;
+    private boolean downloadOnAgent;
     
     @DataBoundConstructor
     public DiversionSCM(String repositoryId, String credentialsId) {
@@ -66,6 +76,11 @@ public class DiversionSCM extends SCM {
         this.libraryPath = libraryPath;
     }
     
+    @DataBoundSetter
+    public void setDownloadOnAgent(boolean downloadOnAgent) {
+        this.downloadOnAgent = downloadOnAgent;
+    }
+    
     public String getRepositoryId() {
         return repositoryId;
     }
@@ -86,6 +101,10 @@ public class DiversionSCM extends SCM {
         return libraryPath;
     }
     
+    public boolean isDownloadOnAgent() {
+        return downloadOnAgent;
+    }
+    
     /**
      * Get the script path from the Jenkins job configuration
      * This method is only used when no explicit scriptPath is configured.
@@ -164,6 +183,23 @@ public class DiversionSCM extends SCM {
             DiversionRepository repo = client.getRepository(repositoryId);
             listener.getLogger().println("Repository: " + repo.getName());
             
+            // Pin the checkout to the branch's current commit so every file comes from the
+            // same snapshot and reads can be served from the tree and blob caches
+            String commitId = client.resolveCommitId(repositoryId, branch);
+            String ref = commitId != null ? commitId : branch;
+            DiversionCommit checkedOutCommit = null;
+            if (commitId != null) {
+                listener.getLogger().println("Checking out commit: " + commitId);
+                try {
+                    checkedOutCommit = client.getCommitDetails(repositoryId, commitId);
+                } catch (IOException e) {
+                    listener.getLogger().println("Warning: Could not get details of commit " + commitId + ": " + e.getMessage());
+                }
+                // Remember what was built so calcRevisionsFromBuild needs no API calls
+                DiversionRevisionAction.record(build, repositoryId, branch, commitId,
+                    checkedOutCommit != null ? checkedOutCommit.getCreatedTs() : 0L);
+            }
+            
             // Check if this is a library checkout (workspace path contains @libs)
             String workspacePath = workspace.getRemote();
             boolean isLibraryCheckout = workspacePath.contains("@libs");
@@ -178,16 +214,81 @@ public class DiversionSCM extends SCM {
                     : "Meta/Jenkins/SharedLibs";
                 listener.getLogger().println("Using library path: " + libPath);
                 
-                java.util.List<DiversionFile> files = client.getFileTree(repositoryId, branch);
+                java.util.List<DiversionFile> files = client.getFileTree(repositoryId, ref);
                 
-                int downloadedCount = 0;
+                // Only download regular files from the library directory.
+                // Tree entries (directories) return 405 from the blob endpoint.
+                java.util.List<String> libraryFiles = new java.util.ArrayList<>();
+                java.util.Map<String, String> blobIds = new java.util.HashMap<>();
                 for (DiversionFile file : files) {
                     String filePath = file.getPath();
-                    // Only download regular files from the library directory.
-                    // Tree entries (directories) return 405 from the blob endpoint.
                     if (filePath != null && filePath.startsWith(libPath + "/") && file.isFile()) {
-                        try {
-                            String content = client.getFileContent(repositoryId, branch, filePath);
+                        libraryFiles.add(filePath);
+                        blobIds.put(filePath, file.getBlobId());
+                    }
+                }
+                
+                // Compare against what the previous checkout left in this workspace so
+                // only added or modified files are downloaded
+                java.util.Map<String, String> workspaceBlobIds = new java.util.LinkedHashMap<>();
+                for (String filePath : libraryFiles) {
+                    workspaceBlobIds.put(filePath.substring(libPath.length() + 1), blobIds.get(filePath));
+                }
+                DiversionWorkspaceManifest manifest = new DiversionWorkspaceManifest(ref, libPath, workspaceBlobIds);
+                DiversionWorkspaceManifest previousManifest = DiversionWorkspaceManifest.read(workspace);
+                
+                int missingBlobIds = manifest.countMissingBlobIds();
+                if (missingBlobIds > 0) {
+                    listener.getLogger().println("Note: " + missingBlobIds + " of " + libraryFiles.size()
+                        + " library files have no blob ID; they are downloaded again whenever the commit changes");
+                }
+                
+                java.util.List<String> filesToDownload = libraryFiles;
+                if (previousManifest != null && previousManifest.getSourcePath().equals(libPath)) {
+                    java.util.Set<String> changed = new java.util.HashSet<>(previousManifest.changedPaths(manifest));
+                    java.util.List<String> removed = previousManifest.removedPaths(manifest);
+                    
+                    // Files the manifest calls unchanged may have been deleted from the workspace since
+                    java.util.List<String> unchanged = new java.util.ArrayList<>();
+                    for (String relativePath : workspaceBlobIds.keySet()) {
+                        if (!changed.contains(relativePath)) {
+                            unchanged.add(relativePath);
+                        }
+                    }
+                    java.util.List<String> missing = DiversionWorkspaceManifest.missingFiles(workspace, unchanged);
+                    changed.addAll(missing);
+                    
+                    filesToDownload = new java.util.ArrayList<>();
+                    for (String filePath : libraryFiles) {
+                        if (changed.contains(filePath.substring(libPath.length() + 1))) {
+                            filesToDownload.add(filePath);
+                        }
+                    }
+                    listener.getLogger().println("Updating workspace from " + previousManifest.getCommitId() + ": "
+                        + (filesToDownload.size() - missing.size()) + " changed, " + missing.size() + " missing, "
+                        + removed.size() + " removed, " + (libraryFiles.size() - filesToDownload.size()) + " unchanged");
+                    for (String relativePath : removed) {
+                        // The manifest is stored in the workspace, so never trust it to name files outside it
+                        if (!DiversionWorkspaceManifest.isInsideWorkspace(relativePath)) {
+                            listener.getLogger().println("Warning: Not deleting " + relativePath + ": outside the workspace");
+                            continue;
+                        }
+                        workspace.child(relativePath).delete();
+                    }
+                }
+                
+                // Drop the old manifest first so an interrupted download is never mistaken for a complete one
+                DiversionWorkspaceManifest.delete(workspace);
+                
+                DiversionParallelDownloader.Result result;
+                if (useAgentDownload(workspace)) {
+                    listener.getLogger().println("Downloading " + filesToDownload.size() + " library files on the agent using up to " + DOWNLOAD_THREADS + " workers");
+                    result = workspace.act(new DiversionAgentDownload(client.getAccessTokenForTransfer(),
+                        repositoryId, ref, filesToDownload, libPath + "/", DOWNLOAD_THREADS, DOWNLOAD_RETRIES));
+                } else {
+                    listener.getLogger().println("Downloading " + filesToDownload.size() + " library files using up to " + DOWNLOAD_THREADS + " workers");
+                    result = DiversionParallelDownloader.downloadAll(
+                        filesToDownload, DOWNLOAD_THREADS, DOWNLOAD_RETRIES, filePath -> {
                             // Remove the library path prefix so files are at workspace root
                             String relativePath = filePath.substring(libPath.length() + 1);
                             FilePath targetFile = workspace.child(relativePath);
@@ -195,13 +296,18 @@ public class DiversionSCM extends SCM {
                             if (parent != null) {
                                 parent.mkdirs();
                             }
-                            targetFile.write(content, "UTF-8");
-                            downloadedCount++;
-                        } catch (IOException | InterruptedException e) {
-                            listener.getLogger().println("Warning: Could not download " + filePath + ": " + e.getMessage());
-                        }
-                    }
+                            // Stream bytes unchanged so binary assets are not corrupted
+                            client.downloadFile(repositoryId, ref, filePath, blobIds.get(filePath), targetFile);
+                        });
                 }
+                
+                for (String failure : result.getFailures()) {
+                    listener.getLogger().println("Warning: Could not download " + failure);
+                }
+                if (result.getFailures().isEmpty()) {
+                    manifest.write(workspace);
+                }
+                int downloadedCount = result.getDownloaded();
                 listener.getLogger().println("Downloaded " + downloadedCount + " library files");
                 
             } else {
@@ -210,13 +316,21 @@ public class DiversionSCM extends SCM {
                 listener.getLogger().println("Script path: " + scriptPath);
                 
                 // Download the specific script file
-                String content = client.getFileContent(repositoryId, branch, scriptPath);
-                FilePath targetFile = workspace.child(scriptPath);
-                FilePath parent = targetFile.getParent();
-                if (parent != null) {
-                    parent.mkdirs();
+                if (useAgentDownload(workspace)) {
+                    DiversionParallelDownloader.Result result = workspace.act(new DiversionAgentDownload(
+                        client.getAccessTokenForTransfer(), repositoryId, ref,
+                        Collections.singletonList(scriptPath), "", 1, DOWNLOAD_RETRIES));
+                    if (!result.getFailures().isEmpty()) {
+                        throw new IOException("Failed to download " + result.getFailures().get(0));
+                    }
+                } else {
+                    FilePath targetFile = workspace.child(scriptPath);
+                    FilePath parent = targetFile.getParent();
+                    if (parent != null) {
+                        parent.mkdirs();
+                    }
+                    client.downloadFile(repositoryId, ref, scriptPath, targetFile);
                 }
-                targetFile.write(content, "UTF-8");
                 listener.getLogger().println("Downloaded: " + scriptPath);
             }
             
@@ -228,18 +342,16 @@ public class DiversionSCM extends SCM {
                 boolean shouldWriteChangelog = false;
                 boolean skipForSameRepo = false;
                 
-                // Use build ID to track state across checkouts
-                String buildKey = build.getExternalizableId();
-                
+                // The changelog owner is remembered in memory per build to track state across checkouts
                 synchronized (build) {
-                    String alreadyWritten = System.getProperty(buildKey + ".changelog");
+                    DiversionChangelogOwner.Owner alreadyWritten = DiversionChangelogOwner.ownerOf(build);
                     
                     if (alreadyWritten == null) {
                         // First checkout for this build
                         if (!isLibraryCheckout) {
                             // Script checkout - always write changelog
                             shouldWriteChangelog = true;
-                            System.setProperty(buildKey + ".changelog", "script");
+                            DiversionChangelogOwner.record(build, DiversionChangelogOwner.Owner.SCRIPT);
                             listener.getLogger().println("Creating changelog (script checkout)...");
                         } else {
                             // Library checkout - check if pipeline uses the same repo
@@ -247,12 +359,12 @@ public class DiversionSCM extends SCM {
                             if (pipelineRepoId != null && pipelineRepoId.equals(repositoryId)) {
                                 // Same repo! Skip library changelog to prevent duplicates
                                 skipForSameRepo = true;
-                                System.setProperty(buildKey + ".changelog", "library-skipped");
+                                DiversionChangelogOwner.record(build, DiversionChangelogOwner.Owner.LIBRARY_SKIPPED);
                                 listener.getLogger().println("Library and pipeline use same repository (" + repositoryId + ") - skipping library changelog to prevent duplicates");
                             } else {
                                 // Different repo or couldn't determine - write changelog
                                 shouldWriteChangelog = true;
-                                System.setProperty(buildKey + ".changelog", "library");
+                                DiversionChangelogOwner.record(build, DiversionChangelogOwner.Owner.LIBRARY);
                                 if (pipelineRepoId != null) {
                                     listener.getLogger().println("Library uses different repository than pipeline - creating changelog");
                                 } else {
@@ -260,10 +372,10 @@ public class DiversionSCM extends SCM {
                                 }
                             }
                         }
-                    } else if ((alreadyWritten.equals("library") || alreadyWritten.equals("library-skipped")) && !isLibraryCheckout) {
+                    } else if (alreadyWritten != DiversionChangelogOwner.Owner.SCRIPT && !isLibraryCheckout) {
                         // Library checked out first, now script checkout
                         shouldWriteChangelog = true;
-                        System.setProperty(buildKey + ".changelog", "script");
+                        DiversionChangelogOwner.record(build, DiversionChangelogOwner.Owner.SCRIPT);
                         listener.getLogger().println("Creating changelog (script checkout)...");
                     } else {
                         listener.getLogger().println("Skipping changelog (already written for this build)");
@@ -272,42 +384,21 @@ public class DiversionSCM extends SCM {
                 
                 // Write empty changelog if we're skipping for same-repo
                 if (skipForSameRepo) {
-                    try (java.io.FileWriter writer = new java.io.FileWriter(changelogFile, java.nio.charset.StandardCharsets.UTF_8)) {
-                        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<changelog>\n</changelog>\n");
-                    }
+                    DiversionChangeLogWriter.writeEmpty(changelogFile);
                 }
                 
                 if (shouldWriteChangelog) {
                     try {
-                        // Get the latest commit for this build
-                        DiversionCommit latestCommit = client.getLatestCommit(repositoryId, branch);
+                        // Get the commit this build checked out
+                        DiversionCommit latestCommit = checkedOutCommit != null
+                            ? checkedOutCommit
+                            : commitId != null
+                                ? client.getCommitDetails(repositoryId, commitId)
+                                : client.getLatestCommit(repositoryId, branch);
                         String currentCommitId = latestCommit.getCommitId();
                         
-                        // Get the previous build's commit ID (if any)
-                        String previousCommitId = null;
-                        Run<?, ?> previousBuild = build.getPreviousBuild();
-                        if (previousBuild != null) {
-                            SCMRevisionState previousState = previousBuild.getAction(SCMRevisionState.class);
-                            if (previousState != null && previousState.getClass().getName().contains("MultiSCMRevisionState")) {
-                                // Extract Diversion state from MultiSCMRevisionState using reflection
-                                try {
-                                    java.lang.reflect.Field statesField = previousState.getClass().getDeclaredField("revisionStates");
-                                    statesField.setAccessible(true);
-                                    java.util.Map<?, ?> states = (java.util.Map<?, ?>) statesField.get(previousState);
-                                    for (Object state : states.values()) {
-                                        if (state instanceof DiversionSCMRevisionState) {
-                                            previousCommitId = ((DiversionSCMRevisionState) state).getCommitId();
-                                            break;
-                                        }
-                                    }
-                                } catch (ReflectiveOperationException e) {
-                                    // Couldn't extract previous commit, will show all recent commits
-                                }
-                            } else if (previousState instanceof DiversionSCMRevisionState) {
-                                // Direct Diversion state (non-pipeline jobs)
-                                previousCommitId = ((DiversionSCMRevisionState) previousState).getCommitId();
-                            }
-                        }
+                        // Get the commit of the last completed build of this branch (if any)
+                        String previousCommitId = DiversionRevisionAction.findPreviousCommitId(build, repositoryId, branch);
                         
                         // Get commits to include in changelog
                         java.util.List<DiversionCommit> commits = new java.util.ArrayList<>();
@@ -318,20 +409,16 @@ public class DiversionSCM extends SCM {
                         } else if (previousCommitId != null) {
                             // Get commits between previous and current
                             listener.getLogger().println("Finding commits between " + previousCommitId + " and " + currentCommitId);
-                            java.util.List<DiversionCommit> allCommits = client.listCommits(repositoryId, 100);
-                            
-                            // Add commits from newest to the previous commit
-                            boolean foundCurrent = false;
-                            for (DiversionCommit commit : allCommits) {
-                                if (commit.getCommitId().equals(currentCommitId)) {
-                                    foundCurrent = true;
-                                }
-                                if (foundCurrent) {
-                                    if (commit.getCommitId().equals(previousCommitId)) {
-                                        break; // Stop at previous commit
-                                    }
-                                    commits.add(commit);
+                            DiversionCommitWalker walker = new DiversionCommitWalker(client, repositoryId);
+                            try {
+                                commits.addAll(walker.walk(currentCommitId, previousCommitId));
+                                if (walker.isTruncated()) {
+                                    listener.getLogger().println("Changelog limited to the newest " + DiversionCommitWalker.MAX_COMMITS + " commits");
                                 }
+                            } catch (IOException e) {
+                                // e.g. the previous commit no longer exists - show the current commit only
+                                listener.getLogger().println("Warning: Could not walk commit history: " + e.getMessage());
+                                commits.add(latestCommit);
                             }
                             listener.getLogger().println("Found " + commits.size() + " new commits");
                         } else {
@@ -340,32 +427,15 @@ public class DiversionSCM extends SCM {
                             commits.add(latestCommit);
                         }
                         
-                        // Write changelog as XML
-                        try (java.io.FileWriter writer = new java.io.FileWriter(changelogFile, java.nio.charset.StandardCharsets.UTF_8)) {
-                        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-                        writer.write("<changelog>\n");
-                        
-                        for (DiversionCommit commit : commits) {
-                            writer.write("  <entry>\n");
-                            writer.write("    <commitId>" + escapeXml(commit.getCommitId()) + "</commitId>\n");
-                            writer.write("    <msg>" + escapeXml(commit.getCommitMessage()) + "</msg>\n");
-                            writer.write("    <author>" + escapeXml(commit.getAuthor().getName()) + "</author>\n");
-                            writer.write("    <timestamp>" + commit.getCreatedTs() + "</timestamp>\n");
-                            
-                            // Add changed files if available
-                            if (commit.getChangedFiles() != null && !commit.getChangedFiles().isEmpty()) {
-                                writer.write("    <files>\n");
-                                for (String file : commit.getChangedFiles()) {
-                                    writer.write("      <file>" + escapeXml(file) + "</file>\n");
-                                }
-                                writer.write("    </files>\n");
-                            }
-                            
-                            writer.write("  </entry>\n");
+                        // Add changed files the commit listing left out, within the time budget
+                        DiversionCommitEnricher enricher = new DiversionCommitEnricher(client, repositoryId, DiversionCommitEnricher.BUDGET_MILLIS);
+                        commits = enricher.enrich(commits);
+                        if (enricher.getMissing() > 0) {
+                            listener.getLogger().println("Changed files unavailable for " + enricher.getMissing() + " of " + commits.size() + " commits");
                         }
                         
-                        writer.write("</changelog>\n");
-                        }
+                        // Write changelog as XML
+                        DiversionChangeLogWriter.write(commits, changelogFile);
                         
                         listener.getLogger().println("Changelog file created with " + commits.size() + " commits");
                     } catch (IOException e) {
@@ -395,7 +465,14 @@ public class DiversionSCM extends SCM {
     public SCMRevisionState calcRevisionsFromBuild(@NonNull Run<?, ?> build, @NonNull FilePath workspace, 
                                                   @NonNull Launcher launcher, @NonNull TaskListener listener) 
                                                   throws IOException, InterruptedException {
+        // The commit pinned during checkout is the one actually built
+        DiversionRevisionAction checkedOut = DiversionRevisionAction.find(build, repositoryId, branch);
+        if (checkedOut != null) {
+            return checkedOut.toRevisionState();
+        }
+        
         try {
+            // No checkout recorded (e.g. the branch ref is a tag): ask the API
             DiversionApiClient client = new DiversionApiClient(credentialsId);
             DiversionCommit latestCommit = client.getLatestCommit(repositoryId, branch);
             
@@ -429,9 +506,9 @@ public class DiversionSCM extends SCM {
         listener.getLogger().println("Polling Diversion repository: " + repositoryId + " (branch: " + branch + ")");
         
         try {
-            DiversionApiClient client = new DiversionApiClient(credentialsId);
-            DiversionCommit latestCommit = client.getLatestCommit(repositoryId, branch);
-            String remoteCommitId = latestCommit.getCommitId();
+            // Only the branch's head commit ID is needed to detect a change, and jobs
+            // polling the same branch share one recent lookup
+            String remoteCommitId = resolveHeadCommitId(new DiversionApiClient(credentialsId));
             
             listener.getLogger().println("Latest remote commit: " + remoteCommitId);
             
@@ -447,6 +524,13 @@ public class DiversionSCM extends SCM {
                     return PollingResult.NO_CHANGES;
                 } else {
                     listener.getLogger().println("Changes detected! Triggering build.");
+                    // Commit details are only worth fetching once something changed
+                    try {
+                        DiversionCommit latestCommit = new DiversionApiClient(credentialsId).getCommitDetails(repositoryId, remoteCommitId);
+                        listener.getLogger().println("Latest commit: " + firstLine(latestCommit.getCommitMessage()));
+                    } catch (IOException e) {
+                        listener.getLogger().println("Could not get details of " + remoteCommitId + ": " + e.getMessage());
+                    }
                     return PollingResult.SIGNIFICANT;
                 }
             } else {
@@ -463,6 +547,25 @@ public class DiversionSCM extends SCM {
         }
     }
     
+    /**
+     * Resolve the commit ID at the head of the configured branch with a single shared branch lookup.
+     */
+    private String resolveHeadCommitId(DiversionApiClient client) throws IOException, InterruptedException {
+        String commitId = client.getBranchHead(repositoryId, branch);
+        if (commitId == null) {
+            return client.getLatestCommit(repositoryId, branch).getCommitId();
+        }
+        return commitId;
+    }
+    
+    private static String firstLine(String message) {
+        if (message == null) {
+            return "";
+        }
+        int newline = message.indexOf('\n');
+        return newline >= 0 ? message.substring(0, newline) : message;
+    }
+    
     /**
      * Tell Jenkins we support polling.
      */
@@ -524,15 +627,10 @@ public class DiversionSCM extends SCM {
     }
     
     /**
-     * Escape XML special characters
+     * Whether files should be fetched by the agent owning the workspace rather than the controller.
      */
-    private String escapeXml(String text) {
-        if (text == null) return "";
-        return text.replace("&", "&amp;")
-                   .replace("<", "&lt;")
-                   .replace(">", "&gt;")
-                   .replace("\"", "&quot;")
-                   .replace("'", "&apos;");
+    private boolean useAgentDownload(FilePath workspace) {
+        return downloadOnAgent && workspace.isRemote();
     }
     
     @Extension
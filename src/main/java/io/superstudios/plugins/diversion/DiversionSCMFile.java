@@ -3,10 +3,8 @@ package io.superstudios.plugins.diversion;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import jenkins.scm.api.SCMFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,19 +17,17 @@ public class DiversionSCMFile extends SCMFile {
     private final DiversionSCMFileSystem fileSystem;
     private final DiversionApiClient apiClient;
     private final String repositoryId;
-    private final String branchId;
     private final String path;
     private Boolean isDirectory;
     private String resolvedPath; // Cached resolved path for script auto-detection
     
     protected DiversionSCMFile(@NonNull DiversionSCMFileSystem fileSystem, @NonNull String path,
-                               DiversionApiClient apiClient, String repositoryId, String branchId) {
+                               DiversionApiClient apiClient, String repositoryId) {
         super();
         this.fileSystem = fileSystem;
         this.path = path;
         this.apiClient = apiClient;
         this.repositoryId = repositoryId;
-        this.branchId = branchId;
     }
     
     private DiversionSCMFile(@NonNull DiversionSCMFile parent, @NonNull String name) {
@@ -39,7 +35,6 @@ public class DiversionSCMFile extends SCMFile {
         this.fileSystem = parent.fileSystem;
         this.apiClient = parent.apiClient;
         this.repositoryId = parent.repositoryId;
-        this.branchId = parent.branchId;
         this.path = parent.path.isEmpty() ? name : parent.path + "/" + name;
     }
     
@@ -54,62 +49,10 @@ public class DiversionSCMFile extends SCMFile {
     public Iterable<SCMFile> children() throws IOException, InterruptedException {
         List<SCMFile> children = new ArrayList<>();
         
-        // Get file tree from Diversion API
-        List<DiversionFile> files = apiClient.getFileTree(repositoryId, branchId);
-        
-        // Normalize path for comparison
-        String searchPath = path.isEmpty() ? "" : (path.endsWith("/") ? path : path + "/");
-        
-        // Track both direct files and subdirectories
-        java.util.Map<String, Boolean> childInfo = new java.util.LinkedHashMap<>();
-        
-        // First pass: identify all children and whether they're directories
-        for (DiversionFile file : files) {
-            String filePath = file.getPath();
-            
-            if (filePath != null && filePath.startsWith(searchPath)) {
-                // Get the relative path from this directory
-                String relativePath = filePath.substring(searchPath.length());
-                
-                if (!relativePath.isEmpty()) {
-                    // Check if this is a direct child or a nested path
-                    int slashIndex = relativePath.indexOf('/');
-                    
-                    if (slashIndex == -1) {
-                        // Direct child - could be file or directory
-                        // We'll determine this by checking if other files have this as a prefix
-                        String childName = relativePath;
-                        
-                        // Check if any other file starts with this path + "/"
-                        String possibleDirPrefix = searchPath + childName + "/";
-                        boolean hasChildren = false;
-                        for (DiversionFile otherFile : files) {
-                            if (otherFile.getPath() != null && otherFile.getPath().startsWith(possibleDirPrefix)) {
-                                hasChildren = true;
-                                break;
-                            }
-                        }
-                        
-                        // Only add if not already marked as directory
-                        if (!childInfo.containsKey(childName) || !childInfo.get(childName)) {
-                            childInfo.put(childName, hasChildren);
-                        }
-                    } else {
-                        // Nested path - the first component is definitely a directory
-                        String dirName = relativePath.substring(0, slashIndex);
-                        childInfo.put(dirName, true);
-                    }
-                }
-            }
-        }
-        
-        // Second pass: create child objects
-        for (java.util.Map.Entry<String, Boolean> entry : childInfo.entrySet()) {
-            String childName = entry.getKey();
-            boolean isDir = entry.getValue();
-            
-            DiversionSCMFile child = new DiversionSCMFile(this, childName);
-            child.isDirectory = isDir;
+        // Direct children come straight from the file system's tree index
+        for (DiversionFileTree.Node node : fileSystem.getFileTree().children(path)) {
+            DiversionSCMFile child = new DiversionSCMFile(this, node.getName());
+            child.isDirectory = node.isDirectory();
             children.add(child);
         }
         
@@ -157,30 +100,15 @@ public class DiversionSCMFile extends SCMFile {
                 return Type.DIRECTORY;
             }
             
-            // Check if this path exists in the file tree
-            List<DiversionFile> files = apiClient.getFileTree(repositoryId, branchId);
-            
-            // First check if any files start with this path (it's a directory)
-            String searchPrefix = effectivePath + "/";
-            boolean hasChildren = false;
-            for (DiversionFile file : files) {
-                if (file.getPath() != null && file.getPath().startsWith(searchPrefix)) {
-                    hasChildren = true;
-                    break;
-                }
-            }
-            
-            if (hasChildren) {
+            // Look the path up in the file system's tree index
+            DiversionFileTree tree = fileSystem.getFileTree();
+            if (tree.isDirectory(effectivePath)) {
                 isDirectory = true;
                 return Type.DIRECTORY;
             }
-            
-            // Check if this exact path exists as a file
-            for (DiversionFile file : files) {
-                if (effectivePath.equals(file.getPath())) {
-                    isDirectory = false;
-                    return Type.REGULAR_FILE;
-                }
+            if (tree.isFile(effectivePath)) {
+                isDirectory = false;
+                return Type.REGULAR_FILE;
             }
             
             // Doesn't exist
@@ -197,8 +125,8 @@ public class DiversionSCMFile extends SCMFile {
         // Get file content from Diversion API using the effective path
         // This enables script auto-detection (e.g., "Jenkinsfile" -> "simple-test.groovy")
         String effectivePath = getEffectivePath();
-        String fileContent = apiClient.getFileContent(repositoryId, branchId, effectivePath);
-        return new ByteArrayInputStream(fileContent.getBytes(StandardCharsets.UTF_8));
+        // Read at the file system's commit so all files of one load come from the same snapshot
+        return apiClient.getFileContentAsStream(repositoryId, fileSystem.getRef(), effectivePath);
     }
     
     @Override
@@ -1,5 +1,6 @@
 package io.superstudios.plugins.diversion;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import jenkins.scm.api.SCMFile;
 import jenkins.scm.api.SCMFileSystem;
@@ -7,6 +8,8 @@ import jenkins.scm.api.SCMHead;
 import jenkins.scm.api.SCMRevision;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 /**
  * File system implementation for accessing Diversion repository files.
@@ -20,6 +23,8 @@ public class DiversionSCMFileSystem extends SCMFileSystem {
     private final String libraryPath;
     private final DiversionApiClient apiClient;
     private Long cachedLastModified;
+    private String ref; // Commit all reads resolve against, fixed on first use
+    private DiversionFileTree fileTree; // Built on first use, shared by all SCMFiles of this file system
     
     // For smart script path resolution
     private String jobName;
@@ -44,7 +49,7 @@ public class DiversionSCMFileSystem extends SCMFileSystem {
         // Return the library base path which should contain vars/, src/, resources/
         // If libraryPath is empty or "", it means root of repository
         String rootPath = (libraryPath == null || libraryPath.isEmpty()) ? "" : libraryPath;
-        return new DiversionSCMFile(this, rootPath, apiClient, repositoryId, branchId);
+        return new DiversionSCMFile(this, rootPath, apiClient, repositoryId);
     }
     
     @Override
@@ -53,11 +58,8 @@ public class DiversionSCMFileSystem extends SCMFileSystem {
         // This ensures Jenkins reloads libraries when there are new commits
         if (cachedLastModified == null) {
             try {
-                // Get the latest commit for this branch to check its timestamp
-                DiversionBranch branch = apiClient.getBranchDetails(repositoryId, branchId);
-                String commitId = branch.getCommitId();
-                
-                if (commitId != null && !commitId.isEmpty()) {
+                String commitId = getRef();
+                if (DiversionApiClient.isCommitId(commitId)) {
                     // Get commit details to get the actual timestamp
                     DiversionCommit commit = apiClient.getCommitDetails(repositoryId, commitId);
                     // Convert from seconds to milliseconds
@@ -75,6 +77,62 @@ public class DiversionSCMFileSystem extends SCMFileSystem {
         return cachedLastModified;
     }
     
+    /**
+     * Write the changelog between {@code revision} and this file system's revision, without a workspace.
+     * The commits are found by walking the commit graph, as during checkout.
+     *
+     * @param revision The earlier revision, or null (or not a Diversion revision) to report only the current commit
+     * @return true if there are commits since {@code revision}
+     */
+    @Override
+    public boolean changesSince(@CheckForNull SCMRevision revision, @NonNull OutputStream changeLogStream)
+            throws IOException, InterruptedException {
+        String currentCommitId = getRef();
+        if (!DiversionApiClient.isCommitId(currentCommitId)) {
+            throw new IOException("Could not resolve the current commit of " + branchId);
+        }
+        String previousCommitId = revision instanceof DiversionSCMRevision
+            ? ((DiversionSCMRevision) revision).getCommitId()
+            : null;
+        
+        List<DiversionCommit> commits = new DiversionCommitWalker(apiClient, repositoryId)
+            .walk(currentCommitId, previousCommitId);
+        commits = new DiversionCommitEnricher(apiClient, repositoryId, DiversionCommitEnricher.BUDGET_MILLIS)
+            .enrich(commits);
+        DiversionChangeLogWriter.write(commits, changeLogStream);
+        return !commits.isEmpty();
+    }
+    
+    /**
+     * Get the ref all reads of this file system resolve against.
+     * This is the revision's commit when there is one; otherwise the branch head is resolved
+     * once, so a push during a library load cannot mix files from two commits. Refs that
+     * do not resolve to a commit (e.g. tags) are used as-is.
+     */
+    public synchronized String getRef() throws IOException, InterruptedException {
+        if (ref == null) {
+            SCMRevision revision = getRevision();
+            if (revision instanceof DiversionSCMRevision) {
+                ref = ((DiversionSCMRevision) revision).getCommitId();
+            } else {
+                String commitId = apiClient.resolveCommitId(repositoryId, branchId);
+                ref = commitId != null ? commitId : branchId;
+            }
+        }
+        return ref;
+    }
+    
+    /**
+     * Get the indexed file tree for this file system.
+     * The tree is downloaded once and then answers all SCMFile lookups without further API calls.
+     */
+    public synchronized DiversionFileTree getFileTree() throws IOException, InterruptedException {
+        if (fileTree == null) {
+            fileTree = apiClient.getFileTreeIndex(repositoryId, getRef());
+        }
+        return fileTree;
+    }
+    
     /**
      * Invalidate the cached last modified time.
      * Call this when we want to force a refresh on the next lastModified() call.
@@ -163,7 +221,7 @@ public class DiversionSCMFileSystem extends SCMFileSystem {
                 
                 try {
                     // Search for the script file anywhere in the repository
-                    java.util.List<DiversionFile> files = apiClient.getFileTree(repositoryId, branchId);
+                    java.util.List<DiversionFile> files = getFileTree().getFiles();
                     
                     // Try each pattern in order of preference
                     for (String expectedFileName : expectedFileNames) {
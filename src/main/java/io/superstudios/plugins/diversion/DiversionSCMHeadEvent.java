@@ -0,0 +1,160 @@
+package io.superstudios.plugins.diversion;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.scm.SCM;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A branch of a Diversion repository was created, updated or deleted, as reported by a webhook.
+ */
+public class DiversionSCMHeadEvent extends SCMHeadEvent<DiversionSCMHeadEvent.Payload> {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionSCMHeadEvent.class.getName());
+
+    /**
+     * The branch change carried by a webhook delivery.
+     */
+    public static final class Payload {
+        private final String repositoryId;
+        private final String branchId;
+        private final String branchName;
+        private final String commitId;
+
+        public Payload(@NonNull String repositoryId, @CheckForNull String branchId,
+                       @CheckForNull String branchName, @CheckForNull String commitId) {
+            this.repositoryId = repositoryId;
+            this.branchId = branchId;
+            this.branchName = branchName;
+            this.commitId = commitId;
+        }
+
+        public String getRepositoryId() {
+            return repositoryId;
+        }
+
+        @CheckForNull
+        public String getBranchId() {
+            return branchId;
+        }
+
+        @CheckForNull
+        public String getBranchName() {
+            return branchName;
+        }
+
+        @CheckForNull
+        public String getCommitId() {
+            return commitId;
+        }
+
+        /**
+         * Whether a configured branch (name or ID) refers to the branch in this payload.
+         */
+        boolean matchesBranch(@CheckForNull String branch) {
+            return branch != null && (branch.equals(branchId) || branch.equals(branchName));
+        }
+
+        @Override
+        public String toString() {
+            return "Payload{" +
+                    "repositoryId='" + repositoryId + '\'' +
+                    ", branchId='" + branchId + '\'' +
+                    ", branchName='" + branchName + '\'' +
+                    ", commitId='" + commitId + '\'' +
+                    '}';
+        }
+    }
+
+    public DiversionSCMHeadEvent(@NonNull Type type, @NonNull Payload payload, @CheckForNull String origin) {
+        super(type, payload, origin);
+    }
+
+    @Override
+    public boolean isMatch(@NonNull SCMNavigator navigator) {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public String getSourceName() {
+        return getPayload().getRepositoryId();
+    }
+
+    @Override
+    public boolean isMatch(@NonNull SCMSource source) {
+        return source instanceof DiversionSCMSource
+            && getPayload().getRepositoryId().equals(((DiversionSCMSource) source).getRepositoryId());
+    }
+
+    /**
+     * The head named by this event. Heads are matched by name, so when the payload carries only
+     * the branch ID its name is looked up first. A removed branch can no longer be looked up, so
+     * removals naming the branch only by ID yield no head; the next full scan removes it.
+     */
+    @NonNull
+    @Override
+    public Map<SCMHead, SCMRevision> heads(@NonNull SCMSource source) {
+        Payload payload = getPayload();
+        if (!isMatch(source) || payload.getBranchId() == null && payload.getBranchName() == null) {
+            return Collections.emptyMap();
+        }
+        String name = payload.getBranchName() != null
+            ? payload.getBranchName()
+            : branchName((DiversionSCMSource) source, payload.getBranchId());
+        if (name == null) {
+            return Collections.emptyMap();
+        }
+        // When only the name is known it stands in for the ID; DiversionSCMSource looks the
+        // branch up before observing it
+        String branchId = payload.getBranchId() != null ? payload.getBranchId() : name;
+        DiversionSCMHead head = new DiversionSCMHead(name, branchId);
+        SCMRevision revision = getType() != Type.REMOVED && payload.getCommitId() != null
+            ? new DiversionSCMRevision(head, payload.getCommitId())
+            : null;
+        return Collections.singletonMap(head, revision);
+    }
+
+    /**
+     * Look up the name of a branch known only by ID.
+     *
+     * @return the name, or null if the branch does not exist or could not be looked up
+     */
+    @CheckForNull
+    private String branchName(DiversionSCMSource source, String branchId) {
+        if (getType() == Type.REMOVED) {
+            return null;
+        }
+        try {
+            return new DiversionApiClient(source.getCredentialsId())
+                .getBranchDetails(source.getRepositoryId(), branchId).getBranchName();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not look up the name of branch " + branchId
+                + " in Diversion repository " + source.getRepositoryId(), e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isMatch(@NonNull SCM scm) {
+        if (!(scm instanceof DiversionSCM)) {
+            return false;
+        }
+        DiversionSCM diversionScm = (DiversionSCM) scm;
+        return getPayload().getRepositoryId().equals(diversionScm.getRepositoryId())
+            && getPayload().matchesBranch(diversionScm.getBranch());
+    }
+}
@@ -6,6 +6,7 @@ import hudson.Extension;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
 import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMEvent;
 import jenkins.scm.api.SCMFileSystem;
 import jenkins.scm.api.SCMHead;
 import jenkins.scm.api.SCMHeadEvent;
@@ -14,6 +15,7 @@ import jenkins.scm.api.SCMRevision;
 import jenkins.scm.api.SCMSource;
 import jenkins.scm.api.SCMSourceCriteria;
 import jenkins.scm.api.SCMSourceDescriptor;
+import jenkins.util.SystemProperties;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -25,21 +27,50 @@ import jenkins.model.Jenkins;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 /**
  * SCMSource implementation for Diversion repositories - enables Global Pipeline Libraries.
  * This class allows Jenkins to load shared library files (vars/, src/, resources/) from Diversion.
+ * It also discovers the repository's branches for multibranch projects.
  * 
  * The key to appearing in the Modern SCM dropdown is implementing the retrieve(String, TaskListener) method,
  * which workflow-cps-global-lib's getSCMDescriptors() checks for via hudson.Util.isOverridden().
  */
 public class DiversionSCMSource extends SCMSource {
     
+    private static final String DEFAULT_INCLUDES = "*";
+    
+    /** Number of branches checked against the criteria concurrently, shared by all sources. */
+    static final int PROBE_THREADS = Math.max(1,
+        SystemProperties.getInteger(DiversionSCMSource.class.getName() + ".probeThreads", 4));
+    
+    /**
+     * Pool for branch probes. It is separate from {@link DiversionRequestExecutor} because a probe
+     * may itself wait for requests run there, e.g. when the criteria read the changelog.
+     */
+    private static final ExecutorService PROBE_EXECUTOR =
+        DiversionRequestExecutor.newSharedPool(PROBE_THREADS, "Diversion branch probe");
+    
     private final String repositoryId;
     private final String credentialsId;
     private String libraryPath = "vars"; // Default Jenkins library structure
     private String defaultBranch = "dev";
+    private String includes = DEFAULT_INCLUDES;
+    private String excludes = "";
+    
+    /**
+     * Criteria results by head name from previous scans, reused while a head stays the same branch
+     * at the same commit. Names missing from a full listing are dropped.
+     */
+    private transient java.util.Map<String, ProbeResult> probeResults;
     
     @DataBoundConstructor
     public DiversionSCMSource(String repositoryId, String credentialsId) {
@@ -73,6 +104,30 @@ public class DiversionSCMSource extends SCMSource {
         this.defaultBranch = defaultBranch;
     }
     
+    /**
+     * Space-separated wildcard patterns of branch names to discover.
+     */
+    public String getIncludes() {
+        return includes != null ? includes : DEFAULT_INCLUDES;
+    }
+    
+    @DataBoundSetter
+    public void setIncludes(String includes) {
+        this.includes = includes;
+    }
+    
+    /**
+     * Space-separated wildcard patterns of branch names to ignore.
+     */
+    public String getExcludes() {
+        return excludes != null ? excludes : "";
+    }
+    
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = excludes;
+    }
+    
     /**
      * Required method for Jenkins Global Libraries dropdown visibility.
      * This is what workflow-cps-global-lib's getSCMDescriptors() checks for.
@@ -129,71 +184,289 @@ public class DiversionSCMSource extends SCMSource {
                           @CheckForNull SCMHeadEvent<?> event,
                           @NonNull TaskListener listener) throws IOException, InterruptedException {
         
-        listener.getLogger().println("Discovering branches in Diversion repository: " + repositoryId);
-        
         DiversionApiClient client = new DiversionApiClient(credentialsId);
         
+        // Only consider branches that pass the filters and that the observer asked for
+        java.util.Set<String> requested = null;
+        java.util.Set<SCMHead> includedHeads = observer.getIncludes();
+        if (includedHeads != null) {
+            requested = new java.util.HashSet<>();
+            for (SCMHead head : includedHeads) {
+                requested.add(head.getName());
+            }
+        }
+        
+        List<DiversionSCMRevision> candidates = new ArrayList<>();
+        java.util.Map<SCMHead, SCMRevision> eventHeads = event != null ? event.heads(this) : java.util.Collections.emptyMap();
+        if (!eventHeads.isEmpty()) {
+            // An event names the affected heads; only those are looked at again
+            listener.getLogger().println("Processing " + event.getType() + " event for " + eventHeads.size()
+                + " branch(es) in Diversion repository: " + repositoryId);
+            for (java.util.Map.Entry<SCMHead, SCMRevision> entry : eventHeads.entrySet()) {
+                if (event.getType() == SCMEvent.Type.REMOVED) {
+                    // Not observing the head is how its removal is reported
+                    getProbeResults().remove(entry.getKey().getName());
+                    continue;
+                }
+                DiversionSCMRevision revision = eventRevision(client, entry.getKey(), entry.getValue());
+                if (revision != null && isIncluded(revision.getHead().getName())
+                        && (requested == null || requested.contains(revision.getHead().getName()))) {
+                    candidates.add(revision);
+                }
+            }
+        } else {
+            listener.getLogger().println("Discovering branches in Diversion repository: " + repositoryId);
+            java.util.Set<String> listed = new java.util.HashSet<>();
+            for (DiversionBranch branch : client.listBranches(repositoryId)) {
+                String name = branch.getBranchName();
+                if (name != null) {
+                    listed.add(name);
+                }
+                if (name == null || branch.getBranchId() == null || !isIncluded(name)
+                        || requested != null && !requested.contains(name)) {
+                    continue;
+                }
+                if (branch.getCommitId() == null || branch.getCommitId().isEmpty()) {
+                    listener.getLogger().println("Skipping branch " + name + ": no commits");
+                    continue;
+                }
+                DiversionSCMHead head = new DiversionSCMHead(name, branch.getBranchId());
+                candidates.add(new DiversionSCMRevision(head, branch.getCommitId()));
+            }
+            // Forget results of branches that no longer exist
+            getProbeResults().keySet().retainAll(listed);
+            listener.getLogger().println("Found " + candidates.size() + " matching branches");
+        }
+        
+        if (criteria == null) {
+            for (DiversionSCMRevision revision : candidates) {
+                if (!observer.isObserving()) {
+                    return;
+                }
+                observer.observe(revision.getHead(), revision);
+            }
+            listener.getLogger().println("Branch discovery completed");
+            return;
+        }
+        
+        // Heads still at the commit they were last probed at keep their previous result
+        java.util.Map<String, ProbeResult> previousResults = getProbeResults();
+        List<DiversionSCMRevision> toProbe = new ArrayList<>();
+        List<ProbeResult> unchanged = new ArrayList<>();
+        for (DiversionSCMRevision revision : candidates) {
+            ProbeResult previous = previousResults.get(revision.getHead().getName());
+            if (previous != null && previous.isFor(revision)) {
+                unchanged.add(previous);
+            } else {
+                toProbe.add(revision);
+            }
+        }
+        if (!unchanged.isEmpty()) {
+            listener.getLogger().println(unchanged.size() + " branches unchanged since the last scan");
+        }
+        for (ProbeResult result : unchanged) {
+            if (!observeIfMatching(result, observer, listener)) {
+                return;
+            }
+        }
+        if (toProbe.isEmpty()) {
+            listener.getLogger().println("Branch discovery completed");
+            return;
+        }
+        
+        // Probe branches in parallel; branches at the same commit share one tree through the
+        // tree cache. Qualifying heads are observed on this thread as soon as their probe finishes.
+        CompletionService<ProbeResult> probes = new ExecutorCompletionService<>(PROBE_EXECUTOR);
+        List<Future<ProbeResult>> submitted = new ArrayList<>(toProbe.size());
         try {
-            // Get repository details
-            DiversionRepository repo = client.getRepository(repositoryId);
-            listener.getLogger().println("Repository: " + repo.getName());
-            
-            // Resolve default branch to ID if needed
-            String branchId = client.resolveBranchId(repositoryId, defaultBranch);
-            listener.getLogger().println("Using branch: " + defaultBranch + " (ID: " + branchId + ")");
-            
-            // For simplicity, we'll only use the configured default branch
-            // This matches the user's requirement for single-branch support
-            DiversionSCMHead head = new DiversionSCMHead(defaultBranch, branchId);
-            
-            // Get current commit for this branch
-            DiversionBranch branch = client.getBranchDetails(repositoryId, branchId);
-            DiversionSCMRevision revision = new DiversionSCMRevision(head, branch.getCommitId());
+            for (DiversionSCMRevision revision : toProbe) {
+                submitted.add(probes.submit(() -> new ProbeResult(revision, isHead(criteria, revision, listener))));
+            }
             
-            // Check if this head meets the criteria
-            if (criteria != null) {
-                // Build a file system to check if library files exist
-                SCMFileSystem fs = new DiversionSCMFileSystem(
-                    repositoryId, branchId, credentialsId, libraryPath, revision);
-                if (fs != null) {
-                    SCMFile root = fs.getRoot();
-                    if (!criteria.isHead(new SCMSourceCriteria.Probe() {
-                        @Override
-                        public String name() {
-                            return head.getName();
-                        }
-                        
-                        @Override
-                        public long lastModified() {
-                            return 0;
-                        }
-                        
-                        @Override
-                        public boolean exists(@NonNull String path) throws IOException {
-                            try {
-                                SCMFile file = root.child(path);
-                                // Use isFile() or isDirectory() instead of type() which is protected
-                                return file.isFile() || file.isDirectory();
-                            } catch (InterruptedException e) {
-                                throw new IOException(e);
-                            }
-                        }
-                    }, listener)) {
-                        listener.getLogger().println("Branch does not meet criteria");
-                        return;
-                    }
+            for (int i = 0; i < toProbe.size(); i++) {
+                ProbeResult result;
+                try {
+                    result = probes.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    listener.getLogger().println("Failed to probe branch: " + cause.getMessage());
+                    continue;
+                }
+                previousResults.put(result.revision.getHead().getName(), result);
+                if (!observeIfMatching(result, observer, listener)) {
+                    return;
                 }
             }
+        } finally {
+            // Probes not yet finished are not wanted once the observer stops or we are interrupted
+            for (Future<ProbeResult> probe : submitted) {
+                probe.cancel(true);
+            }
+        }
+        listener.getLogger().println("Branch discovery completed");
+    }
+    
+    /**
+     * Observe a probed head if it met the criteria.
+     *
+     * @return false if the observer wants no more heads
+     */
+    private static boolean observeIfMatching(ProbeResult result, SCMHeadObserver observer, TaskListener listener)
+            throws IOException, InterruptedException {
+        String name = result.revision.getHead().getName();
+        if (!result.matches) {
+            listener.getLogger().println("Branch " + name + " does not meet criteria");
+            return true;
+        }
+        if (!observer.isObserving()) {
+            return false;
+        }
+        listener.getLogger().println("Branch " + name + " meets criteria");
+        observer.observe(result.revision.getHead(), result.revision);
+        return true;
+    }
+    
+    /**
+     * Turn a head named by an event into a revision, looking up what the event left out.
+     *
+     * @return the revision, or null if the branch was removed or has no commits
+     * @throws IOException if the branch could not be looked up for another reason
+     */
+    @CheckForNull
+    private DiversionSCMRevision eventRevision(DiversionApiClient client, SCMHead head, @CheckForNull SCMRevision revision)
+            throws IOException, InterruptedException {
+        if (!(head instanceof DiversionSCMHead)) {
+            return null;
+        }
+        DiversionSCMHead diversionHead = (DiversionSCMHead) head;
+        if (revision instanceof DiversionSCMRevision && !head.getName().equals(diversionHead.getBranchId())) {
+            return (DiversionSCMRevision) revision;
+        }
+        
+        // The event did not carry the commit, or named the branch only by name or only by ID;
+        // getBranchDetails accepts either
+        DiversionBranch branch;
+        try {
+            branch = client.getBranchDetails(repositoryId, diversionHead.getBranchId());
+        } catch (DiversionApiClient.NotFoundException e) {
+            return null; // Deleted since the event was sent
+        }
+        if (branch.getBranchName() == null || branch.getCommitId() == null || branch.getCommitId().isEmpty()) {
+            return null;
+        }
+        String commitId = revision instanceof DiversionSCMRevision
+            ? ((DiversionSCMRevision) revision).getCommitId()
+            : branch.getCommitId();
+        return new DiversionSCMRevision(new DiversionSCMHead(branch.getBranchName(), branch.getBranchId()), commitId);
+    }
+    
+    private synchronized java.util.Map<String, ProbeResult> getProbeResults() {
+        if (probeResults == null) {
+            probeResults = new java.util.concurrent.ConcurrentHashMap<>();
+        }
+        return probeResults;
+    }
+    
+    /**
+     * Outcome of probing one branch against the source criteria.
+     */
+    private static final class ProbeResult {
+        final DiversionSCMRevision revision;
+        final boolean matches;
+        
+        ProbeResult(DiversionSCMRevision revision, boolean matches) {
+            this.revision = revision;
+            this.matches = matches;
+        }
+        
+        /**
+         * Whether this result was probed at the same branch and commit. Revisions compare only
+         * commits, so the branch ID tells apart a branch recreated under the same name.
+         */
+        boolean isFor(DiversionSCMRevision other) {
+            return revision.equals(other)
+                && java.util.Objects.equals(branchIdOf(revision), branchIdOf(other));
+        }
+        
+        @CheckForNull
+        private static String branchIdOf(DiversionSCMRevision revision) {
+            SCMHead head = revision.getHead();
+            return head instanceof DiversionSCMHead ? ((DiversionSCMHead) head).getBranchId() : null;
+        }
+    }
+    
+    /**
+     * Check a branch against the criteria, reading files at the branch's discovered commit.
+     */
+    private boolean isHead(SCMSourceCriteria criteria, DiversionSCMRevision revision, TaskListener listener)
+            throws IOException, InterruptedException {
+        // Read at the commit rather than the branch so the tree comes from the cache
+        SCMFileSystem fs = new DiversionSCMFileSystem(
+            repositoryId, revision.getCommitId(), credentialsId, libraryPath, revision);
+        SCMFile root = fs.getRoot();
+        DiversionApiClient client = ((DiversionSCMFileSystem) fs).getApiClient();
+        return criteria.isHead(new SCMSourceCriteria.Probe() {
+            @Override
+            public String name() {
+                return revision.getHead().getName();
+            }
             
-            // Observe the head
-            observer.observe(head, revision);
-            listener.getLogger().println("Branch discovery completed");
+            @Override
+            public long lastModified() {
+                try {
+                    return client.getCommitDetails(repositoryId, revision.getCommitId()).getCreatedTs() * 1000;
+                } catch (IOException e) {
+                    return 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+            }
             
-        } catch (Exception e) {
-            listener.getLogger().println("Error during branch discovery: " + e.getMessage());
-            e.printStackTrace(listener.getLogger());
-            throw new IOException("Failed to discover branches: " + e.getMessage(), e);
+            @Override
+            public boolean exists(@NonNull String path) throws IOException {
+                try {
+                    SCMFile file = root.child(path);
+                    // Use isFile() or isDirectory() instead of type() which is protected
+                    return file.isFile() || file.isDirectory();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }, listener);
+    }
+    
+    /**
+     * Whether a branch name passes the include and exclude filters.
+     */
+    boolean isIncluded(String branchName) {
+        return matchesAny(branchName, includes != null ? includes : DEFAULT_INCLUDES)
+            && !matchesAny(branchName, excludes);
+    }
+    
+    /**
+     * Match a name against space-separated wildcard patterns, where {@code *} matches any characters.
+     */
+    static boolean matchesAny(String name, @CheckForNull String patterns) {
+        if (patterns == null) {
+            return false;
+        }
+        for (String pattern : patterns.trim().split("\\s+")) {
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            StringBuilder regex = new StringBuilder();
+            for (String part : pattern.split("\\*", -1)) {
+                if (regex.length() > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(part));
+            }
+            if (name.matches(regex.toString())) {
+                return true;
+            }
         }
+        return false;
     }
     
     @Override
@@ -0,0 +1,223 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide cache of Diversion OAuth access tokens.
+ *
+ * Entries are keyed by credential ID plus a fingerprint of the refresh token, so rotating the
+ * secret behind a credential never serves a token minted from the old one. Tokens are refreshed
+ * in the background shortly before they expire, and concurrent callers that miss the cache share
+ * a single token exchange instead of each posting to the auth endpoint.
+ */
+final class DiversionTokenCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionTokenCache.class.getName());
+
+    /** Lifetime assumed when the token response does not include expires_in. */
+    static final long DEFAULT_EXPIRES_IN_SECONDS = 300;
+
+    /** A token is never handed out within this window of its expiry. */
+    private static final long EXPIRY_SKEW_MILLIS = 30_000;
+
+    /**
+     * Minimum remaining lifetime of a token handed to an agent, which cannot refresh it;
+     * a cached token closer to expiry is replaced by a fresh exchange first. It is capped at
+     * half the token's lifetime, so a freshly exchanged token always qualifies.
+     */
+    static final long TRANSFER_MIN_VALIDITY_MILLIS = TimeUnit.SECONDS.toMillis(Math.max(0,
+        SystemProperties.getLong(DiversionTokenCache.class.getName() + ".transferMinValiditySeconds", 600L)));
+
+    /** Fraction of a token's lifetime after which a background refresh is started. */
+    private static final double REFRESH_AFTER_FRACTION = 0.75;
+
+    private static final DiversionTokenCache INSTANCE = new DiversionTokenCache();
+
+    private final ConcurrentMap<String, AccessToken> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<AccessToken>> inFlight = new ConcurrentHashMap<>();
+
+    private DiversionTokenCache() {}
+
+    static DiversionTokenCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Performs the actual refresh token exchange against the Diversion auth endpoint.
+     */
+    interface TokenExchange {
+        AccessToken exchange() throws IOException, InterruptedException;
+    }
+
+    /**
+     * An access token together with its validity window.
+     */
+    static final class AccessToken {
+        private final String value;
+        private final long lifetime;
+        private final long expiresAt;
+        private final long refreshAt;
+
+        AccessToken(String value, long expiresInSeconds) {
+            long now = System.currentTimeMillis();
+            long lifetime = Math.max(0, expiresInSeconds) * 1000;
+            this.value = value;
+            this.lifetime = lifetime;
+            this.expiresAt = now + lifetime;
+            this.refreshAt = now + (long) (lifetime * REFRESH_AFTER_FRACTION);
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        boolean isUsable(long now) {
+            return now < expiresAt - EXPIRY_SKEW_MILLIS;
+        }
+
+        boolean isUsableFor(long now, long minValidityMillis) {
+            long minValidity = Math.min(minValidityMillis, lifetime / 2);
+            return now < expiresAt - Math.max(EXPIRY_SKEW_MILLIS, minValidity);
+        }
+
+        boolean needsRefresh(long now) {
+            return now >= refreshAt;
+        }
+    }
+
+    /**
+     * Return a valid access token for the given credential, exchanging the refresh token only
+     * when no usable cached token exists.
+     */
+    String getAccessToken(String credentialsId, String refreshToken, TokenExchange exchange)
+            throws IOException, InterruptedException {
+        return getAccessToken(credentialsId, refreshToken, 0, exchange);
+    }
+
+    /**
+     * Return an access token that stays valid for at least {@code minValidityMillis}, or half its
+     * lifetime if that is shorter, exchanging the refresh token when the cached one would expire
+     * sooner. Used for tokens handed to agents.
+     */
+    String getAccessToken(String credentialsId, String refreshToken, long minValidityMillis, TokenExchange exchange)
+            throws IOException, InterruptedException {
+        String key = cacheKey(credentialsId, refreshToken);
+        long now = System.currentTimeMillis();
+
+        AccessToken token = tokens.get(key);
+        if (token != null && token.isUsableFor(now, minValidityMillis)) {
+            if (token.needsRefresh(now)) {
+                refreshInBackground(key, credentialsId, exchange);
+            }
+            return token.getValue();
+        }
+
+        return awaitExchange(key, credentialsId, exchange).getValue();
+    }
+
+    /**
+     * Drop the cached token for a credential, e.g. after the API rejected it with 401.
+     */
+    void invalidate(String credentialsId, String refreshToken) {
+        tokens.remove(cacheKey(credentialsId, refreshToken));
+    }
+
+    private AccessToken awaitExchange(String key, String credentialsId, TokenExchange exchange)
+            throws IOException, InterruptedException {
+        while (true) {
+            CompletableFuture<AccessToken> mine = new CompletableFuture<>();
+            CompletableFuture<AccessToken> pending = inFlight.putIfAbsent(key, mine);
+            boolean owner = pending == null;
+            if (owner) {
+                // We own this exchange; run it on the calling thread
+                runExchange(key, credentialsId, exchange, mine);
+                pending = mine;
+            }
+
+            try {
+                return pending.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedException) {
+                    if (owner) {
+                        // Our own thread was interrupted; the flag was restored by runExchange
+                        throw (InterruptedException) cause;
+                    }
+                    // The thread running the exchange was interrupted, not us; run our own
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Token exchange failed: " + cause, cause);
+            }
+        }
+    }
+
+    private void refreshInBackground(String key, String credentialsId, TokenExchange exchange) {
+        CompletableFuture<AccessToken> mine = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, mine) != null) {
+            return; // Someone is already refreshing this token
+        }
+        mine.whenComplete((token, error) -> {
+            if (error != null) {
+                LOGGER.log(Level.FINE, "Background token refresh failed for " + credentialsId, error);
+            }
+        });
+        Timer.get().submit(() -> runExchange(key, credentialsId, exchange, mine));
+    }
+
+    private void runExchange(String key, String credentialsId, TokenExchange exchange,
+                             CompletableFuture<AccessToken> future) {
+        try {
+            AccessToken token = exchange.exchange();
+            // Credentials in different folders may share an ID with different secrets, so only
+            // this exact key is replaced; tokens left behind by rotated secrets expire and are dropped
+            long now = System.currentTimeMillis();
+            tokens.values().removeIf(t -> !t.isUsable(now));
+            tokens.put(key, token);
+            future.complete(token);
+        } catch (InterruptedException e) {
+            future.completeExceptionally(e);
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static String cacheKey(String credentialsId, String refreshToken) {
+        return credentialsId + ":" + fingerprint(refreshToken);
+    }
+
+    /**
+     * SHA-256 of the refresh token, so the secret itself is never used as a map key.
+     */
+    static String fingerprint(String secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(secret.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
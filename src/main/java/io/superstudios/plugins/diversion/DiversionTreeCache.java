@@ -0,0 +1,174 @@
+package io.superstudios.plugins.diversion;
+
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controller-wide cache of indexed file trees, keyed by repository and commit.
+ *
+ * A tree at a given commit never changes, so entries never go stale; the cache is bounded
+ * only by memory. Entries are weighed by their path count and evicted least-recently-used
+ * first once the total exceeds {@code maxPaths}. Concurrent loads of the same commit share
+ * one download; if the thread making it is interrupted, waiters download the tree themselves.
+ * Hit, miss and eviction counters can be read from the script console via
+ * {@code DiversionTreeCache.get()}.
+ */
+public final class DiversionTreeCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionTreeCache.class.getName());
+
+    /** Maximum number of paths held across all cached trees. */
+    static final long MAX_PATHS = Math.max(0,
+        SystemProperties.getLong(DiversionTreeCache.class.getName() + ".maxPaths", 250_000L));
+
+    private static final DiversionTreeCache INSTANCE = new DiversionTreeCache(MAX_PATHS);
+
+    private final long maxWeight;
+    private final LinkedHashMap<String, DiversionFileTree> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<String, CompletableFuture<DiversionFileTree>> loading = new ConcurrentHashMap<>();
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    DiversionTreeCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public static DiversionTreeCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads a tree on a cache miss.
+     */
+    interface Loader {
+        DiversionFileTree load() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Get the tree for a commit, loading it on a miss.
+     * The commit ID must be immutable (not a branch name or ID).
+     */
+    DiversionFileTree get(String repositoryId, String commitId, Loader loader) throws IOException, InterruptedException {
+        String key = repositoryId + "@" + commitId;
+
+        while (true) {
+            synchronized (this) {
+                DiversionFileTree cached = entries.get(key);
+                if (cached != null) {
+                    hits.incrementAndGet();
+                    return cached;
+                }
+            }
+
+            CompletableFuture<DiversionFileTree> mine = new CompletableFuture<>();
+            CompletableFuture<DiversionFileTree> pending = loading.putIfAbsent(key, mine);
+            if (pending == null) {
+                misses.incrementAndGet();
+                try {
+                    DiversionFileTree tree = loader.load();
+                    put(key, tree);
+                    mine.complete(tree);
+                    return tree;
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    mine.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    loading.remove(key, mine);
+                }
+            }
+
+            // Another thread is already downloading this tree; wait for its result
+            hits.incrementAndGet();
+            try {
+                return pending.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (DiversionCommitCache.isInterruption(cause)) {
+                    // The thread downloading it was interrupted, not us; download it ourselves
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to load file tree for " + key + ": " + cause, cause);
+            }
+        }
+    }
+
+    private synchronized void put(String key, DiversionFileTree tree) {
+        if (tree.size() > maxWeight) {
+            return; // Larger than the whole cache; caching it would evict everything else
+        }
+        DiversionFileTree previous = entries.put(key, tree);
+        if (previous != null) {
+            weight -= previous.size();
+        }
+        weight += tree.size();
+
+        Iterator<Map.Entry<String, DiversionFileTree>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Map.Entry<String, DiversionFileTree> entry = eldest.next();
+            weight -= entry.getValue().size();
+            eldest.remove();
+            evictions.incrementAndGet();
+            LOGGER.log(Level.FINE, "Evicted file tree {0} ({1} paths)",
+                new Object[] {entry.getKey(), entry.getValue().size()});
+        }
+    }
+
+    /**
+     * Drop all cached trees.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Total number of paths currently held.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "DiversionTreeCache{" +
+                "entries=" + getEntryCount() +
+                ", paths=" + getWeight() + "/" + maxWeight +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
@@ -0,0 +1,251 @@
+package io.superstudios.plugins.diversion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.UnprotectedRootAction;
+import hudson.scm.SCM;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.csrf.CrumbExclusion;
+import hudson.triggers.SCMTrigger;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.triggers.SCMTriggerItem;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Receives Diversion webhooks at {@code JENKINS_URL/diversion-webhook/notify}.
+ *
+ * Each delivery must be signed with the secret from {@link DiversionWebhookConfiguration}:
+ * the {@code X-Diversion-Signature} header carries the hex HMAC-SHA256 of the raw body,
+ * optionally prefixed with {@code sha256=}. A verified branch event fires a
+ * {@link DiversionSCMHeadEvent} for multibranch sources and schedules polling for the
+ * {@link DiversionSCM} jobs that track the same repository and branch. Those jobs need the
+ * "Poll SCM" trigger enabled, but can leave its schedule empty.
+ */
+@Extension
+public class DiversionWebhook implements UnprotectedRootAction {
+
+    private static final Logger LOGGER = Logger.getLogger(DiversionWebhook.class.getName());
+
+    static final String URL_NAME = "diversion-webhook";
+    static final String SIGNATURE_HEADER = "X-Diversion-Signature";
+    static final String EVENT_HEADER = "X-Diversion-Event";
+
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    @RequirePOST
+    public HttpResponse doNotify(StaplerRequest2 request) throws IOException {
+        Secret secret = DiversionWebhookConfiguration.get().getSecret();
+        if (secret == null || secret.getPlainText().isEmpty()) {
+            return HttpResponses.errorWithoutStack(403, "Diversion webhook secret is not configured");
+        }
+
+        byte[] body;
+        try (InputStream in = request.getInputStream()) {
+            body = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            return HttpResponses.errorWithoutStack(413, "Payload too large");
+        }
+        if (!isValidSignature(secret.getPlainText(), body, request.getHeader(SIGNATURE_HEADER))) {
+            return HttpResponses.errorWithoutStack(403, "Invalid signature");
+        }
+
+        JsonNode json;
+        try {
+            json = MAPPER.readTree(body);
+        } catch (IOException e) {
+            return HttpResponses.errorWithoutStack(400, "Invalid JSON payload");
+        }
+        String eventName = request.getHeader(EVENT_HEADER);
+        if (eventName == null) {
+            eventName = text(json, "event");
+        }
+
+        DiversionSCMHeadEvent.Payload payload = parsePayload(json);
+        if (payload == null) {
+            LOGGER.log(Level.FINE, "Ignoring Diversion webhook without a repository: {0}", eventName);
+            return HttpResponses.text("ignored");
+        }
+
+        SCMEvent.Type type = typeOf(eventName);
+        LOGGER.log(Level.FINE, "Received Diversion webhook {0} ({1}): {2}", new Object[] {eventName, type, payload});
+        handle(type, payload, SCMEvent.originOf(request));
+        return HttpResponses.text("ok");
+    }
+
+    /**
+     * Fire the head event and poll matching jobs.
+     */
+    static void handle(SCMEvent.Type type, DiversionSCMHeadEvent.Payload payload, @CheckForNull String origin) {
+        // Heads and indexes cached for this repository are stale now
+        DiversionBranchHeadCoordinator.get().invalidate(payload.getRepositoryId(), null);
+        DiversionBranchIndex.get().invalidate(payload.getRepositoryId());
+
+        if (payload.getBranchId() != null || payload.getBranchName() != null) {
+            SCMHeadEvent.fireNow(new DiversionSCMHeadEvent(type, payload, origin));
+        }
+        if (type != SCMEvent.Type.REMOVED) {
+            schedulePolling(payload);
+        }
+    }
+
+    private static void schedulePolling(DiversionSCMHeadEvent.Payload payload) {
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (Item item : Jenkins.get().getAllItems(Item.class)) {
+                SCMTriggerItem triggerItem = SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(item);
+                if (triggerItem == null || !usesBranch(triggerItem, payload)) {
+                    continue;
+                }
+                SCMTrigger trigger = triggerItem.getSCMTrigger();
+                if (trigger == null || trigger.isIgnorePostCommitHooks()) {
+                    LOGGER.log(Level.FINE, "Not polling {0}: no SCM trigger accepting post-commit hooks", item.getFullName());
+                    continue;
+                }
+                LOGGER.log(Level.FINE, "Scheduling polling of {0} for {1}", new Object[] {item.getFullName(), payload});
+                trigger.run();
+            }
+        }
+    }
+
+    private static boolean usesBranch(SCMTriggerItem item, DiversionSCMHeadEvent.Payload payload) {
+        for (SCM scm : item.getSCMs()) {
+            if (scm instanceof DiversionSCM) {
+                DiversionSCM diversionScm = (DiversionSCM) scm;
+                if (payload.getRepositoryId().equals(diversionScm.getRepositoryId())
+                        && (payload.getBranchId() == null && payload.getBranchName() == null
+                            || payload.matchesBranch(diversionScm.getBranch()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Extract the repository, branch and commit from a delivery's top-level
+     * {@code repo_id}, {@code branch_id}, {@code branch_name} and {@code commit_id} fields.
+     *
+     * @return the payload, or null if it names no repository
+     */
+    @CheckForNull
+    static DiversionSCMHeadEvent.Payload parsePayload(JsonNode json) {
+        String repositoryId = text(json, "repo_id");
+        if (repositoryId == null) {
+            return null;
+        }
+        return new DiversionSCMHeadEvent.Payload(repositoryId, text(json, "branch_id"),
+            text(json, "branch_name"), text(json, "commit_id"));
+    }
+
+    /**
+     * Map a Diversion event name to an SCM event type; anything not a create or delete is an update.
+     */
+    static SCMEvent.Type typeOf(@CheckForNull String eventName) {
+        String name = eventName != null ? eventName.toLowerCase(Locale.ROOT) : "";
+        if (name.contains("delete") || name.contains("remove")) {
+            return SCMEvent.Type.REMOVED;
+        }
+        if (name.contains("create")) {
+            return SCMEvent.Type.CREATED;
+        }
+        return SCMEvent.Type.UPDATED;
+    }
+
+    /**
+     * Verify an HMAC-SHA256 signature in constant time.
+     */
+    static boolean isValidSignature(String secret, byte[] body, @CheckForNull String signature) {
+        if (signature == null) {
+            return false;
+        }
+        String hex = signature.trim();
+        if (hex.regionMatches(true, 0, "sha256=", 0, 7)) {
+            hex = hex.substring(7);
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] expected = toHex(mac.doFinal(body)).getBytes(StandardCharsets.US_ASCII);
+            byte[] actual = hex.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            return MessageDigest.isEqual(expected, actual);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @CheckForNull
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value != null && value.isValueNode() && !value.isNull() && !value.asText().isEmpty()) {
+            return value.asText();
+        }
+        return null;
+    }
+
+    /**
+     * Webhook deliveries cannot carry a crumb; they are authenticated by their signature instead.
+     */
+    @Extension
+    public static class CrumbExclusionImpl extends CrumbExclusion {
+        @Override
+        public boolean process(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            String pathInfo = request.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/" + URL_NAME + "/")) {
+                chain.doFilter(request, response);
+                return true;
+            }
+            return false;
+        }
+    }
+}
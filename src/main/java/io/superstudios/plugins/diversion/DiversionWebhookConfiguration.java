@@ -0,0 +1,49 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.util.Secret;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Global settings for the Diversion webhook endpoint.
+ */
+@Symbol("diversionWebhook")
+@Extension
+public class DiversionWebhookConfiguration extends GlobalConfiguration {
+
+    private Secret secret;
+
+    public DiversionWebhookConfiguration() {
+        load();
+    }
+
+    public static DiversionWebhookConfiguration get() {
+        return ExtensionList.lookupSingleton(DiversionWebhookConfiguration.class);
+    }
+
+    /**
+     * Shared secret used to verify the HMAC-SHA256 signature of webhook deliveries.
+     */
+    @CheckForNull
+    public Secret getSecret() {
+        return secret;
+    }
+
+    @DataBoundSetter
+    public void setSecret(Secret secret) {
+        this.secret = secret;
+        save();
+    }
+
+    @NonNull
+    @Override
+    public String getDisplayName() {
+        return "Diversion Webhook";
+    }
+}
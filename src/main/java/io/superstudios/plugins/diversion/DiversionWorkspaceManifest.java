@@ -0,0 +1,209 @@
+package io.superstudios.plugins.diversion;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records which files a library checkout wrote into a workspace, and from which blobs.
+ *
+ * The manifest lives in the workspace itself, so wiping the workspace also discards it
+ * and the next checkout falls back to a full download. Paths are relative to the workspace
+ * root; a {@code null} blob ID means the API did not report one, so the file is only reused
+ * when the commit did not change.
+ */
+final class DiversionWorkspaceManifest {
+
+    /** File name of the manifest in the workspace root. */
+    static final String FILE_NAME = ".diversion-manifest";
+
+    private static final String HEADER = "# Diversion workspace manifest v1";
+
+    private final String commitId;
+    private final String sourcePath;
+    private final Map<String, String> blobIds;
+
+    /**
+     * @param commitId Commit the files were checked out from
+     * @param sourcePath Repository directory that was mapped to the workspace root
+     * @param blobIds Blob ID by workspace-relative path
+     */
+    DiversionWorkspaceManifest(String commitId, String sourcePath, Map<String, String> blobIds) {
+        this.commitId = commitId;
+        this.sourcePath = sourcePath;
+        this.blobIds = Collections.unmodifiableMap(new LinkedHashMap<>(blobIds));
+    }
+
+    String getCommitId() {
+        return commitId;
+    }
+
+    String getSourcePath() {
+        return sourcePath;
+    }
+
+    Map<String, String> getBlobIds() {
+        return blobIds;
+    }
+
+    /**
+     * Paths in {@code target} that are missing from this manifest or whose blob changed.
+     * Files without a blob ID only count as unchanged when both manifests are for the same commit.
+     */
+    List<String> changedPaths(DiversionWorkspaceManifest target) {
+        boolean sameCommit = DiversionApiClient.isCommitId(commitId) && commitId.equals(target.commitId);
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : target.blobIds.entrySet()) {
+            String path = entry.getKey();
+            String blobId = entry.getValue();
+            boolean unchanged = blobId != null
+                ? blobId.equals(blobIds.get(path))
+                : sameCommit && blobIds.containsKey(path) && blobIds.get(path) == null;
+            if (!unchanged) {
+                changed.add(path);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Number of files in this manifest whose blob ID the API did not report.
+     */
+    int countMissingBlobIds() {
+        int missing = 0;
+        for (String blobId : blobIds.values()) {
+            if (blobId == null) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Whether a manifest path stays inside the workspace once normalized.
+     * The manifest is stored in the workspace, so a build can write arbitrary paths into it.
+     */
+    static boolean isInsideWorkspace(String relativePath) {
+        try {
+            Path root = Paths.get("workspace");
+            Path target = root.resolve(relativePath.replace('\\', '/')).normalize();
+            return target.startsWith(root) && !target.equals(root);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Which of the given workspace-relative paths do not exist as files, checked in a single
+     * call to the agent that owns the workspace.
+     */
+    static List<String> missingFiles(FilePath workspace, List<String> paths) throws IOException, InterruptedException {
+        return workspace.act(new MissingFiles(paths));
+    }
+
+    private static final class MissingFiles extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+
+        MissingFiles(List<String> paths) {
+            this.paths = new ArrayList<>(paths);
+        }
+
+        @Override
+        public List<String> invoke(File workspace, VirtualChannel channel) {
+            List<String> missing = new ArrayList<>();
+            for (String path : paths) {
+                if (!new File(workspace, path).isFile()) {
+                    missing.add(path);
+                }
+            }
+            return missing;
+        }
+    }
+
+    /**
+     * Paths in this manifest that no longer exist in {@code target}.
+     */
+    List<String> removedPaths(DiversionWorkspaceManifest target) {
+        List<String> removed = new ArrayList<>();
+        for (String path : blobIds.keySet()) {
+            if (!target.blobIds.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Read the manifest from a workspace.
+     *
+     * @return the manifest, or null if there is none or it cannot be parsed
+     */
+    @CheckForNull
+    static DiversionWorkspaceManifest read(FilePath workspace) throws IOException, InterruptedException {
+        FilePath file = workspace.child(FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        String[] lines = file.readToString().split("\n");
+        if (lines.length < 3 || !lines[0].equals(HEADER)
+                || !lines[1].startsWith("commit\t") || !lines[2].startsWith("source\t")) {
+            return null;
+        }
+        String commitId = lines[1].substring("commit\t".length());
+        String sourcePath = lines[2].substring("source\t".length());
+
+        Map<String, String> blobIds = new LinkedHashMap<>();
+        for (int i = 3; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty()) {
+                continue;
+            }
+            // Blob IDs never contain tabs, paths may
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                return null;
+            }
+            String blobId = line.substring(0, tab);
+            blobIds.put(line.substring(tab + 1), blobId.equals("-") ? null : blobId);
+        }
+        return new DiversionWorkspaceManifest(commitId, sourcePath, blobIds);
+    }
+
+    /**
+     * Write this manifest into a workspace, replacing any previous one.
+     */
+    void write(FilePath workspace) throws IOException, InterruptedException {
+        StringBuilder content = new StringBuilder();
+        content.append(HEADER).append('\n');
+        content.append("commit\t").append(commitId).append('\n');
+        content.append("source\t").append(sourcePath).append('\n');
+        for (Map.Entry<String, String> entry : blobIds.entrySet()) {
+            String blobId = entry.getValue();
+            content.append(blobId != null ? blobId : "-").append('\t').append(entry.getKey()).append('\n');
+        }
+        workspace.child(FILE_NAME).write(content.toString(), StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Remove the manifest from a workspace, e.g. before a download that may only partly succeed.
+     */
+    static void delete(FilePath workspace) throws IOException, InterruptedException {
+        workspace.child(FILE_NAME).delete();
+    }
+}